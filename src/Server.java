@@ -1,40 +1,159 @@
+import files.FileCache;
 import files.FileManager;
+import network.AccessLog;
 import network.Client;
+import network.RequestHandler;
+import network.ServerConfig;
+import network.WorkerThreadFactory;
+import network.nio.NioServer;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class Server {
 
     /**
-     * Default HTTP port for communication.
+     * Path to the server settings file.
      */
-    private static final int PORT = 80;
+    private static final String CONFIG = "config/server.set";
+
+    /**
+     * Settings of the server.
+     */
+    private ServerConfig config;
+
+    /**
+     * Constructor.
+     * @param config Settings of the server.
+     */
+    public Server(ServerConfig config) {
+        this.config = config;
+    }
 
     public static void main(String[] args) {
-        new Server().execute();
+        ServerConfig config = new ServerConfig(new File(CONFIG));
+
+        // The mode can be overruled by the first argument.
+        if (args.length > 0) {
+            config.setMode(args[0]);
+        }
+
+        new Server(config).execute();
     }
 
     /**
      * Execute the HTTP service.
      */
     public void execute() {
+
+        // Checked before indexing, so the server doesn't fail after the complete indexing pass.
+        if (config.getMode().equals(ServerConfig.MODE_VIRTUAL) && !WorkerThreadFactory.isVirtualSupported()) {
+            System.err.println("Virtual threads require Java 21 or newer, using the pool mode");
+            config.setMode(ServerConfig.MODE_POOL);
+        }
+
         try {
-            ServerSocket serverSocket = new ServerSocket(PORT);
+            FileManager fileManager = new FileManager("config/hosts.txt", config.getSnapshot(), config.getLazyBudget());
+            if (config.getCacheSize() > 0 || config.getMapSize() > 0 || config.getCompressSize() > 0) {
+                FileCache cache = new FileCache(config.getCacheSize(), config.getCacheEntrySize(),
+                        config.getMapThreshold(), config.getMapSize(), config.getCompressSize());
+                fileManager.setCache(cache);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> report(cache), "cache-report"));
+            }
+            if (config.isWatch()) {
+                try {
+                    fileManager.watch();
+                } catch (IOException e) {
 
-            FileManager fileManager = new FileManager("config/hosts.txt");
+                    // The server still works, but changes are only seen after a reboot.
+                    System.err.println("Folders can't be watched: " + e.getMessage());
+                }
+            }
+            RequestHandler handler = new RequestHandler(fileManager);
+            if (config.getAccessLog() != null) {
+                AccessLog accessLog = new AccessLog(config.getAccessLog(), config.getAccessLogSize(), config.getAccessLogAge());
+                accessLog.start();
+                handler.setAccessLog(accessLog);
+            }
+
+            // The non-blocking mode has its own way of accepting connections.
+            if (config.getMode().equals(ServerConfig.MODE_NIO)) {
+                new NioServer(config, handler).execute();
+                return;
+            }
+
+            // The sockets are accepted by a channel, so files can be transferred directly into the socket.
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(config.getPort()));
+
+            Executor executor = createExecutor();
 
             while (true) {
-                Socket socket = serverSocket.accept();
+                Socket socket = serverChannel.accept().socket();
 
-                System.out.println("Connection");
+                Client client = new Client(socket, handler, config);
+                try {
+                    executor.execute(client);
+                } catch (RejectedExecutionException e) {
 
-                Client client = new Client(socket, fileManager);
-                client.start();
+                    // All workers are busy and the queue is full.
+                    client.reject();
+                }
             }
         } catch (IOException e) {
             System.out.println(e.getMessage());
         }
     }
+
+    /**
+     * Print the statistics of the cache, when the server shuts down.
+     * @param cache Cache of the content of files.
+     */
+    private static void report(FileCache cache) {
+        System.out.println("Cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses, "
+                + cache.getUncached() + " uncached, " + cache.getEvictions() + " evictions, "
+                + cache.getSize() + " bytes in memory, " + cache.getMappedSize() + " bytes mapped, "
+                + cache.getCompressedSize() + " bytes compressed");
+    }
+
+    /**
+     * Create the executor that runs the clients, depended on the mode in the server settings.
+     * In the pool mode, extra workers above the core amount are only started when the queue is full.
+     * If also the maximum amount of workers is reached, the connection will be rejected.
+     * In the virtual mode, every connection gets a cheap virtual thread, so the blocking handling of a client
+     * doesn't occupy a platform thread while it is waiting on the network.
+     * @return the executor that runs the clients.
+     */
+    private Executor createExecutor() {
+        WorkerThreadFactory threadFactory = new WorkerThreadFactory("http-worker");
+
+        switch (config.getMode()) {
+            case ServerConfig.MODE_THREAD:
+                return command -> threadFactory.newThread(command).start();
+            case ServerConfig.MODE_POOL:
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                        config.getCoreWorkers(),
+                        config.getMaxWorkers(),
+                        config.getWorkerIdle(), TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(config.getQueueSize()),
+                        threadFactory,
+                        new ThreadPoolExecutor.AbortPolicy());
+                executor.prestartCoreThread();
+                return executor;
+            case ServerConfig.MODE_VIRTUAL:
+                ThreadFactory virtualFactory = WorkerThreadFactory.ofVirtual("http-virtual");
+                return command -> virtualFactory.newThread(command).start();
+        }
+
+        throw new IllegalArgumentException("Unknown mode: " + config.getMode());
+    }
 }
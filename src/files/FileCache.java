@@ -0,0 +1,486 @@
+package files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory cache of the content of files.
+ *
+ * Small files are read into memory. The memory has a total budget of bytes,
+ * files larger than the maximum entry size are never read into memory.
+ * Large files, from the map threshold on, are mapped read-only into memory. The mapping is shared by all
+ * requests of the file, so the content is read from the page cache of the operating system.
+ * The mapped files have a own budget of bytes. Files between both sizes, or larger than a budget, are not cached.
+ * They are remembered without content, so they aren't tried again until they are altered.
+ * Such an entry counts as {@link FileCache#NO_CONTENT_SIZE} bytes, so the remembered files are evicted like the others.
+ * Text files can be compressed on the fly with gzip. The compressed content is cached with a own budget,
+ * so a file is compressed once, and again only after it is altered.
+ * If a budget is exceeded, the least recently used files will be evicted.
+ *
+ * A cached file is checked against the file system at most once per {@link FileCache#CHECK_INTERVAL} milliseconds.
+ * If the file is altered, the content will be read or mapped again.
+ * The mapping of an evicted or altered file is released by the garbage collector, when no response uses it anymore.
+ * As long as a file is mapped, some operating systems lock the file.
+ * Large files should be replaced instead of altered in place, truncating a mapped file makes running responses fail.
+ */
+public class FileCache {
+
+    /**
+     * Milliseconds between the checks of a cached file against the file system.
+     */
+    public static final long CHECK_INTERVAL = 1000;
+
+    /**
+     * Size in bytes an entry without content counts for, about the memory of the entry itself.
+     */
+    private static final int NO_CONTENT_SIZE = 256;
+
+    /**
+     * Small files that are read into memory.
+     */
+    private Tier memory;
+
+    /**
+     * Large files that are mapped into memory.
+     */
+    private Tier mapped;
+
+    /**
+     * Files compressed with gzip.
+     */
+    private Tier compressed;
+
+    /**
+     * Maximum size of a single file read into memory.
+     */
+    private long maxEntry;
+
+    /**
+     * Minimum size of a mapped file.
+     */
+    private long mapThreshold;
+
+    /**
+     * Amount of requests answered from the cache.
+     */
+    private LongAdder hits = new LongAdder();
+
+    /**
+     * Amount of requests not answered from the cache.
+     */
+    private LongAdder misses = new LongAdder();
+
+    /**
+     * Amount of requests of files that are remembered as not worth caching.
+     */
+    private LongAdder uncached = new LongAdder();
+
+    /**
+     * Constructor.
+     * @param budget Total budget of bytes of the files read into memory, 0 if no files are read into memory.
+     * @param maxEntry Maximum size of a single file read into memory.
+     * @param mapThreshold Minimum size of a mapped file.
+     * @param mapBudget Total budget of bytes of the mapped files, 0 if no files are mapped.
+     * @param compressBudget Total budget of bytes of the compressed files, 0 if no files are compressed.
+     */
+    public FileCache(long budget, long maxEntry, long mapThreshold, long mapBudget, long compressBudget) {
+        memory = new Tier(budget);
+        mapped = new Tier(mapBudget);
+        compressed = new Tier(compressBudget);
+
+        this.maxEntry = Math.min(maxEntry, budget);
+        this.mapThreshold = mapBudget > 0 ? Math.max(mapThreshold, this.maxEntry + 1) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Get the content of a file.
+     * If the file isn't cached yet and has a cacheable size, it will be read or mapped and cached.
+     * @param path Path to the file.
+     * @return read-only content of the file, or null if the file isn't cached.
+     */
+    public ByteBuffer get(String path) {
+        Entry entry = memory.get(path);
+        if (entry == null) {
+            entry = mapped.get(path);
+        }
+
+        if (entry != null && entry.isValid()) {
+            if (entry.content == null) {
+
+                // The file has no cacheable size, it is sent from the file system.
+                uncached.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.content.duplicate();
+        }
+
+        misses.increment();
+        entry = load(path);
+        return entry != null && entry.content != null ? entry.content.duplicate() : null;
+    }
+
+    /**
+     * Get the content of a file compressed with gzip.
+     * If the file isn't compressed yet, it will be compressed and cached.
+     * @param path Path to the file.
+     * @param minSize Minimum size of the file to compress.
+     * @return read-only compressed content of the file,
+     * or null if the file is too small or too large, or the compressed content isn't smaller than the file.
+     */
+    public ByteBuffer getCompressed(String path, long minSize) {
+        Entry entry = compressed.get(path);
+        if (entry != null && entry.isValid()) {
+            if (entry.content != null) {
+                hits.increment();
+            } else {
+                uncached.increment();
+            }
+        } else {
+            misses.increment();
+            entry = compress(path, minSize);
+        }
+
+        return entry != null && entry.content != null ? entry.content.duplicate() : null;
+    }
+
+    /**
+     * Remove a file from the cache.
+     * @param path Path to the file.
+     */
+    public void invalidate(String path) {
+        memory.remove(path);
+        mapped.remove(path);
+        compressed.remove(path);
+    }
+
+    /**
+     * Read or map the file and put it into the cache.
+     * A file that has no cacheable size is cached without content, so it isn't tried again until it is altered.
+     * @param path Path to the file.
+     * @return the new entry, or null if the file can't be read.
+     */
+    private Entry load(String path) {
+        memory.remove(path);
+        mapped.remove(path);
+
+        File file = new File(path);
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        try {
+            if (length <= maxEntry) {
+                ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+                return memory.put(path, new Entry(file, lastModified, length, content.asReadOnlyBuffer()));
+            }
+
+            if (length >= mapThreshold && length <= Math.min(mapped.budget, Integer.MAX_VALUE)) {
+                try (RandomAccessFile reader = new RandomAccessFile(file, "r")) {
+
+                    // The mapping stays valid after closing the file.
+                    ByteBuffer content = reader.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                    return mapped.put(path, new Entry(file, lastModified, length, content));
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        // Without a memory budget, the file is remembered by the mapped files.
+        Tier tier = memory.budget >= NO_CONTENT_SIZE ? memory : mapped;
+        return tier.put(path, new Entry(file, lastModified, length, null));
+    }
+
+    /**
+     * Compress the file with gzip and put it into the cache.
+     * A file that isn't worth compressing is cached without content, so it isn't tried again until it is altered.
+     * @param path Path to the file.
+     * @param minSize Minimum size of the file to compress.
+     * @return the new entry, or null if the file can't be read.
+     */
+    private Entry compress(String path, long minSize) {
+        compressed.remove(path);
+
+        File file = new File(path);
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        if (length < minSize || length > compressed.budget) {
+            return compressed.put(path, new Entry(file, lastModified, length, null));
+        }
+
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream((int) Math.min(length, 65536));
+            try (GZIPOutputStream gzip = new GZIPOutputStream(output, 8192)) {
+                Files.copy(file.toPath(), gzip);
+            }
+
+            ByteBuffer content = output.size() < length ? ByteBuffer.wrap(output.toByteArray()).asReadOnlyBuffer() : null;
+            return compressed.put(path, new Entry(file, lastModified, length, content));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the amount of requests answered from the cache.
+     * @return the amount of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the amount of requests not answered from the cache.
+     * @return the amount of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the amount of requests of files that are remembered as not worth caching or compressing.
+     * These are neither counted as hits nor as misses.
+     * @return the amount of requests of uncached files.
+     */
+    public long getUncached() {
+        return uncached.sum();
+    }
+
+    /**
+     * Get the amount of evicted files.
+     * @return the amount of evictions.
+     */
+    public long getEvictions() {
+        return memory.evictions.sum() + mapped.evictions.sum() + compressed.evictions.sum();
+    }
+
+    /**
+     * Get the size of all files read into memory.
+     * @return the size of all files read into memory in bytes, including the files remembered without content.
+     */
+    public long getSize() {
+        return memory.getSize();
+    }
+
+    /**
+     * Get the size of all mapped files.
+     * @return the size of all mapped files in bytes.
+     */
+    public long getMappedSize() {
+        return mapped.getSize();
+    }
+
+    /**
+     * Get the size of all compressed files.
+     * @return the size of all compressed files in bytes.
+     */
+    public long getCompressedSize() {
+        return compressed.getSize();
+    }
+
+    /**
+     * Group of cached files with a own budget.
+     */
+    private static class Tier {
+
+        /**
+         * Total budget of bytes.
+         */
+        private long budget;
+
+        /**
+         * Size of all cached files.
+         */
+        private long size;
+
+        /**
+         * Cached files by path, in order of last access.
+         */
+        private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+        /**
+         * Lock of the entries.
+         */
+        private ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Amount of evicted files.
+         */
+        private LongAdder evictions = new LongAdder();
+
+        /**
+         * Constructor.
+         * @param budget Total budget of bytes.
+         */
+        Tier(long budget) {
+            this.budget = budget;
+        }
+
+        /**
+         * Get a cached file.
+         * @param path Path to the file.
+         * @return the cached file, or null if not cached.
+         */
+        Entry get(String path) {
+            lock.lock();
+            try {
+                return entries.get(path);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Put a file into the cache.
+         * The least recently used files are evicted, until the budget is met.
+         * A file larger than the complete budget isn't cached, it would evict all other files.
+         * @param path Path to the file.
+         * @param entry Cached file.
+         * @return the cached file, or null if the file is larger than the budget.
+         */
+        Entry put(String path, Entry entry) {
+            if (entry.getSize() > budget) {
+                remove(path);
+                return null;
+            }
+
+            lock.lock();
+            try {
+                Entry previous = entries.put(path, entry);
+                if (previous != null) {
+                    size -= previous.getSize();
+                }
+                size += entry.getSize();
+
+                Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+                while (size > budget && iterator.hasNext()) {
+                    Entry eldest = iterator.next().getValue();
+                    if (eldest == entry) {
+                        continue;
+                    }
+
+                    iterator.remove();
+                    size -= eldest.getSize();
+                    evictions.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+            return entry;
+        }
+
+        /**
+         * Remove a file from the cache.
+         * @param path Path to the file.
+         */
+        void remove(String path) {
+            lock.lock();
+            try {
+                Entry entry = entries.remove(path);
+                if (entry != null) {
+                    size -= entry.getSize();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Get the size of all cached files.
+         * @return the size of all cached files in bytes.
+         */
+        long getSize() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Cached content of a file.
+     */
+    private static class Entry {
+
+        /**
+         * Cached file.
+         */
+        private File file;
+
+        /**
+         * Modification time of the file, when it was read.
+         */
+        private long lastModified;
+
+        /**
+         * Length of the file, when it was read.
+         */
+        private long length;
+
+        /**
+         * Content of the file, or null if the file is cached without content.
+         */
+        private ByteBuffer content;
+
+        /**
+         * Time in milliseconds of the last check against the file system.
+         */
+        private volatile long checked;
+
+        /**
+         * Constructor.
+         * @param file Cached file.
+         * @param lastModified Modification time of the file, when it was read.
+         * @param length Length of the file, when it was read.
+         * @param content Content of the file, or null if the file is cached without content.
+         */
+        Entry(File file, long lastModified, long length, ByteBuffer content) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.content = content;
+            checked = System.currentTimeMillis();
+        }
+
+        /**
+         * Checking of the cached content is still equal to the file.
+         * The file system is only asked, if the last check is too long ago.
+         * @return the cached content is still valid.
+         */
+        boolean isValid() {
+            long now = System.currentTimeMillis();
+            if (now - checked < CHECK_INTERVAL) {
+                return true;
+            }
+
+            if (file.lastModified() != lastModified || file.length() != length) {
+                return false;
+            }
+
+            checked = now;
+            return true;
+        }
+
+        /**
+         * Get the size of the cached content.
+         * @return the size of the cached content in bytes, or {@link FileCache#NO_CONTENT_SIZE} if it has no content.
+         */
+        long getSize() {
+            return content != null ? content.capacity() : NO_CONTENT_SIZE;
+        }
+    }
+}
@@ -1,24 +1,54 @@
 package files;
 
+import network.HeaderBuffer;
 import network.Mime;
+import files.IndexSnapshot.StoredFile;
+import files.IndexSnapshot.StoredFolder;
 import files.rules.RuleSet;
+import network.Request;
 import network.Url;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Managing all files for all hosts.
- * Each host has a entry in the {@link FileManager#roots} hash map.
+ * Each host has a entry in the {@link FileManager#roots} snapshot.
  * In a entry is Hierarchic data structure that respectively the folder structure.
  * In the structure all pointers to files are be saved. Each file is be saved as a {@link HttpFile}.
  *
- * If the software is running and a folder or file will be added to a folder, they won't be scanned by the {@link FileManager}.
- * When these will be requested by a client, they will be come a {@link network.Response#FILE_NOT_FOUND} error.
- * To add these to the structure, the software must be rebooted by the user of the software.
+ * If the software is running and a folder or file will be added to a folder, they won't be scanned by the {@link FileManager},
+ * unless the folders are watched by a {@link FileWatcher}, see {@link FileManager#watch()}.
+ * The watcher indexes only the changed folders again, a changed rules settings file also its sub folders.
+ * Without watcher new files will be come a {@link network.Response#FILE_NOT_FOUND} error, until the software is rebooted.
  *
  * Scanned files can be altered, but the names of files and the place of the files must be exactly the same as before the change,
- * else will be a {@link network.Response#FILE_NOT_FOUND} error responded by requesting the given file.
+ * else will be a {@link network.Response#FILE_NOT_FOUND} error responded by requesting the given file, if the folders aren't watched.
  * It is possible that the files will be locked by the application, if that is the case it is impossible the altered the files.
  *
  * It is possible to exclude files or folders from scanning.
@@ -26,18 +56,82 @@ import java.util.HashMap;
  * If these will be requested the client will be {@link network.Response#FILE_NOT_FOUND} error response.
  * Files and folders can be excluded by the {@link RuleSet}.
  * These folders and files will never be locked by the software after the initialization.
+ *
+ * Text files can have precompressed sidecar files, like "style.css.gz" or "style.css.br", next to them.
+ * If the client accepts the encoding, the sidecar is responded instead of the file.
+ * Text files without a gzip sidecar are compressed on the fly, as far as the {@link RuleSet} allows it.
+ * The {@link Validator} of each file is computed while scanning, so conditional requests are answered without reading the file.
+ *
+ * Besides the folder structure, the root of each host has a flat index of all urls of its files and folders.
+ * A request is resolved by a single {@link Lookup} in this index, that holds the file, the mime type support
+ * and the rule settings. Only a url that isn't indexed is resolved by walking the folder structure.
+ *
+ * The folders are indexed in parallel by a {@link ForkJoinPool}: all hosts at once, and each folder forks the indexing
+ * of its sub folders. A folder is read with a single directory listing, of which the attributes of the entries are used,
+ * so no file is asked separately of it is a file or folder, its length or its modification time.
+ * While the hosts are indexed at startup the progress is reported, and after that the time it took.
+ * The indexed folders can be stored in a {@link IndexSnapshot}, so the next start only scans the changed folders.
+ *
+ * Very large trees can be indexed lazily. Then only the roots are indexed at startup, the sub folders are placeholders
+ * that are indexed the first time a request walks into them. A placeholder only exists for a folder that its parent
+ * allows to index, and it is indexed with the rules of its parent, so the inherited deny and index rules still hold.
+ * If more files are indexed than the budget allows, the least recently used folders without indexed sub folders
+ * become placeholders again.
+ *
+ * The data structure is immutable. The roots of all hosts form a snapshot behind an atomic reference.
+ * An update builds the changed folder again, copies the folders on the path from the root to it and a new snapshot
+ * with the new root, after that the snapshot is swapped at once.
+ * Therefore the walks through the folders are lock-free and never see a half updated structure, and clients running
+ * on virtual threads are never pinned to their carrier thread while they are waiting on the {@link FileManager}.
+ *
+ * The flat index isn't part of the snapshot. It is shared by all versions of a root and changed in place,
+ * so an update only costs its changed folders. A lookup always sees the newest index, also if it holds an older root:
+ * a single url is resolved to its current or its previous version, but two lookups of one request can resolve to
+ * different versions. The urls of an update are added before its root is published and the urls that are gone
+ * are removed after, so a url that exists in both versions is never missed.
  */
 public class FileManager {
 
+    /**
+     * Suffixes of precompressed sidecar files, in order of preference.
+     */
+    private static final String[] SIDECAR_SUFFIXES = { ".br", ".gz" };
+
+    /**
+     * Content codings of the precompressed sidecar files.
+     */
+    private static final String[] SIDECAR_CODINGS = { "br", "gzip" };
+
+    /**
+     * Encoded content encoding header lines of the precompressed sidecar files.
+     */
+    private static final byte[][] SIDECAR_HEADERS = { HeaderBuffer.CONTENT_ENCODING_BROTLI, HeaderBuffer.CONTENT_ENCODING_GZIP };
+
+    /**
+     * Index of gzip in the sidecar arrays.
+     */
+    private static final int GZIP = 1;
+
+    /**
+     * Milliseconds between the reports of the indexing progress at startup.
+     */
+    private static final long PROGRESS_INTERVAL = 1000;
+
+    /**
+     * Milliseconds the last request time of a folder may be behind, in the lazy mode.
+     */
+    private static final long USE_GRANULARITY = 1000;
+
     /**
      * Default host, also used as fallback if the requested hosts doesn't exists.
      */
     private String defaultHost;
 
     /**
-     * Hash map with the hosts and roots of it hosts with given file structure.
+     * Snapshot of the hosts and roots of it hosts with given file structure.
+     * The map is never altered, an update replaces it.
      */
-    private HashMap<String, FolderNode> roots;
+    private final AtomicReference<Map<String, FolderNode>> roots = new AtomicReference<>(Collections.<String, FolderNode>emptyMap());
 
     /**
      * The base rule settings.
@@ -46,21 +140,377 @@ public class FileManager {
      */
     private RuleSet baseRuleSet;
 
+    /**
+     * Cache of the content of small files, or null if files are not cached.
+     */
+    private FileCache cache;
+
+    /**
+     * Watcher of the indexed folders, or null if the folders aren't watched.
+     */
+    private FileWatcher watcher;
+
+    /**
+     * Pool of the workers that index the folders.
+     */
+    private final ForkJoinPool indexer = new ForkJoinPool();
+
+    /**
+     * Snapshot file of the indexed folders, or null if no snapshot is kept.
+     */
+    private File snapshot;
+
+    /**
+     * Modification time of the base rules settings file, a snapshot is only valid if it is unchanged.
+     */
+    private long rulesModified;
+
+    /**
+     * Maximum amount of indexed files in the lazy mode, 0 if all folders are indexed at startup.
+     */
+    private long lazyBudget;
+
+    /**
+     * Lock of the updates of the folders, so a folder that is requested by many clients at once is indexed once,
+     * and the flat indexes are changed by one update at a time.
+     */
+    private final ReentrantLock updateLock = new ReentrantLock();
+
+    /**
+     * Amount of indexed files of all hosts, only changed while the updates are locked.
+     */
+    private long indexedFiles;
+
     /**
      * Constructor.
      * @param path Path to the host file.
      */
     public FileManager(String path) {
-        roots = new HashMap<>();
+        this(path, null, 0);
+    }
+
+    /**
+     * Constructor.
+     * The unchanged folders are restored from the snapshot, after indexing the snapshot is written again.
+     * @param path Path to the host file.
+     * @param snapshot Snapshot file of the indexed folders, or null if no snapshot is kept.
+     * @param lazyBudget Maximum amount of indexed files if the folders are indexed lazily, 0 to index all folders at startup.
+     */
+    public FileManager(String path, File snapshot, long lazyBudget) {
+        this.snapshot = snapshot;
+        this.lazyBudget = lazyBudget;
+        long start = System.nanoTime();
+        LinkedHashMap<String, IndexTask> tasks = new LinkedHashMap<>();
 
         try {
-            baseRuleSet = new RuleSet(new File("config/rules.set"));
+            File rules = new File("config/rules.set");
+            rulesModified = IndexSnapshot.modified(rules);
+            baseRuleSet = new RuleSet(rules);
 
-            ConfigReader reader = new ConfigReader(new File(path), new HostListener());
+            Map<String, StoredFolder> stored = snapshot != null ?
+                    IndexSnapshot.read(snapshot, rulesModified) : Collections.<String, StoredFolder>emptyMap();
+            ConfigReader reader = new ConfigReader(new File(path), new HostListener(tasks, stored));
             reader.readFile();
         } catch (IOException e) {
             System.out.println("error");
         }
+
+        HashMap<String, FolderNode> hosts = new HashMap<>();
+        for (Map.Entry<String, IndexTask> task : tasks.entrySet()) {
+            hosts.put(task.getKey(), await(task.getValue(), tasks));
+
+            IndexProgress progress = task.getValue().progress;
+            System.out.println("Indexed " + task.getKey() + ": " + progress.folders + " folders (" + progress.restored
+                    + " from snapshot), " + progress.files + " files in " + progress.time + " ms");
+        }
+        System.out.println("Indexing finished in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+
+        for (FolderNode root : hosts.values()) {
+            indexedFiles += root.countFiles();
+        }
+        roots.set(Collections.unmodifiableMap(hosts));
+
+        if (snapshot != null) {
+            indexer.execute(this::saveSnapshot);
+        }
+    }
+
+    /**
+     * Write the indexed folders of all hosts to the snapshot file.
+     * Nothing is written if no snapshot is kept.
+     */
+    synchronized void saveSnapshot() {
+        if (snapshot == null) {
+            return;
+        }
+
+        // Hosts can share a root, which is written once.
+        HashMap<String, FolderNode> folders = new HashMap<>();
+        for (FolderNode root : roots.get().values()) {
+            folders.put(root.location.toString(), root);
+        }
+
+        try (DataOutputStream out = IndexSnapshot.create(snapshot, rulesModified, folders.size())) {
+            for (Map.Entry<String, FolderNode> root : folders.entrySet()) {
+                out.writeUTF(root.getKey());
+                root.getValue().write(out);
+            }
+        } catch (IOException e) {
+            System.err.println("Index snapshot can't be written: " + e.getMessage());
+            return;
+        }
+
+        try {
+            IndexSnapshot.commit(snapshot);
+        } catch (IOException e) {
+            System.err.println("Index snapshot can't be written: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Wait until a host is indexed, meanwhile the progress of all hosts is reported.
+     * @param task Indexing of the host.
+     * @param tasks Indexing of all hosts.
+     * @return the root of the host.
+     */
+    private FolderNode await(IndexTask task, Map<String, IndexTask> tasks) {
+        while (!task.isDone()) {
+            try {
+                task.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                long folders = 0;
+                long files = 0;
+                for (IndexTask other : tasks.values()) {
+                    folders += other.progress.folders.sum();
+                    files += other.progress.files.sum();
+                }
+                System.out.println("Indexing: " + folders + " folders, " + files + " files");
+            } catch (InterruptedException | ExecutionException e) {
+                break;
+            }
+        }
+        return task.join();
+    }
+
+    /**
+     * Set the cache of the content of small files.
+     * @param cache Cache of the content of small files, or null if files are not cached.
+     */
+    public void setCache(FileCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Get the cache of the content of small files.
+     * @return the cache, or null if files are not cached.
+     */
+    public FileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Watch the indexed folders of all hosts, and update the data structure if files or folders are changed.
+     * The watcher runs in a own daemon thread.
+     * @throws IOException the file system can't be watched.
+     */
+    public void watch() throws IOException {
+        watcher = new FileWatcher(this);
+        for (FolderNode root : roots.get().values()) {
+            root.register();
+        }
+
+        Thread thread = new Thread(watcher, "file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Update a changed folder of all hosts that contain the folder.
+     * Only called by the {@link FileWatcher}, the update waits for a placeholder that is indexed in the meantime.
+     * @param folder Changed folder.
+     * @param changed Names of the changed files and folders in the folder.
+     * @param recursive Index the sub folders again too, otherwise the unchanged sub folders are kept.
+     */
+    void update(Path folder, Set<String> changed, boolean recursive) {
+        update(folder, changed, recursive, false);
+    }
+
+    /**
+     * Update a changed folder of all hosts that contain the folder.
+     * @param folder Changed folder.
+     * @param changed Names of the changed files and folders in the folder.
+     * @param recursive Index the sub folders again too, otherwise the unchanged sub folders are kept.
+     * @param load Index the folder if it is a placeholder, otherwise a placeholder is left alone.
+     */
+    private void update(Path folder, Set<String> changed, boolean recursive, boolean load) {
+        updateLock.lock();
+        try {
+            Map<String, FolderNode> current = roots.get();
+            HashMap<String, FolderNode> next = new HashMap<>(current);
+            for (Map.Entry<String, FolderNode> root : current.entrySet()) {
+                FolderNode updated = update(root.getValue(), folder, changed, recursive, load);
+                if (updated != null) {
+                    next.put(root.getKey(), updated);
+                }
+            }
+            publish(current, next);
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Publish the new roots of the hosts, and change the flat indexes by the folders that are changed.
+     * The urls of the changed folders are added before the roots are published, and the urls that are gone
+     * are removed after, so a request never misses a url that exists in both versions.
+     * A root that is indexed again completely has a new flat index, which isn't changed.
+     * Only called while the updates are locked.
+     * @param current Current roots of the hosts.
+     * @param next New roots of the hosts.
+     */
+    private void publish(Map<String, FolderNode> current, Map<String, FolderNode> next) {
+        for (Map.Entry<String, FolderNode> root : next.entrySet()) {
+            FolderNode previous = current.get(root.getKey());
+            FolderNode updated = root.getValue();
+            if (updated == previous) {
+                continue;
+            }
+
+            if (updated.index == previous.index) {
+                indexedFiles += updated.addToIndex(updated.index, "/", previous, updated.ruleSet);
+            } else {
+                indexedFiles += updated.countFiles() - previous.countFiles();
+            }
+        }
+
+        roots.set(Collections.unmodifiableMap(next));
+
+        for (Map.Entry<String, FolderNode> root : next.entrySet()) {
+            FolderNode previous = current.get(root.getKey());
+            FolderNode updated = root.getValue();
+            if (updated != previous && updated.index == previous.index) {
+                indexedFiles -= updated.removeFromIndex(updated.index, "/", previous);
+            }
+        }
+    }
+
+    /**
+     * Update a changed folder of a host.
+     * @param root Root of the host.
+     * @param folder Changed folder.
+     * @param changed Names of the changed files and folders in the folder.
+     * @param recursive Index the sub folders again too, otherwise the unchanged sub folders are kept.
+     * @param load Index the folder if it is a placeholder, otherwise a placeholder is left alone.
+     * @return the new root of the host, or null if the folder isn't indexed for the host.
+     */
+    private FolderNode update(FolderNode root, Path folder, Set<String> changed, boolean recursive, boolean load) {
+        if (!folder.startsWith(root.location)) {
+            return null;
+        }
+
+        // Find the folders from the root to the changed folder.
+        List<FolderNode> nodes = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        FolderNode node = root;
+        nodes.add(node);
+        for (Path name : root.location.relativize(folder)) {
+            if (name.toString().isEmpty()) {
+                continue;
+            }
+
+            // The folder isn't indexed, it will be indexed by the update of its parent.
+            // A placeholder has no sub folders, and is indexed when it is requested.
+            node = node.folders.get(name.toString());
+            if (node == null) {
+                return null;
+            }
+            nodes.add(node);
+            names.add(name.toString());
+        }
+        if (!node.loaded && !load) {
+            return null;
+        }
+
+        if (cache != null) {
+            for (String name : changed) {
+                cache.invalidate(node.path + name);
+            }
+        }
+
+        // Build the changed folder again, and copy the folders on the path to it.
+        int depth = nodes.size() - 1;
+        RuleSet rules = depth > 0 ? nodes.get(depth - 1).ruleSet : baseRuleSet;
+        FolderNode updated = indexer.invoke(new IndexTask(node.folder, node.path, rules, depth == 0,
+                recursive ? null : node, recursive ? Collections.<String>emptySet() : changed, null, new IndexProgress()));
+        for (int i = depth - 1; i >= 0; i--) {
+            HashMap<String, FolderNode> folders = new HashMap<>(nodes.get(i).folders);
+            folders.put(names.get(i), updated);
+            updated = new FolderNode(nodes.get(i), folders);
+        }
+        return updated;
+    }
+
+    /**
+     * Index a placeholder on the path of a url, the first time a request walks into it.
+     * If the budget is exceeded after that, the least recently used folders become placeholders again.
+     * @param host Requested host.
+     * @param path Path of the requested url.
+     * @return the placeholder is indexed, by this or another request.
+     */
+    private boolean load(String host, String[] path) {
+        updateLock.lock();
+        try {
+
+            // Another request could have indexed the placeholder in the meantime.
+            FolderNode root = roots.get().get(host);
+            FolderNode stub = root != null ? root.findStub(path) : null;
+            if (stub == null) {
+                return true;
+            }
+
+            update(stub.location, Collections.<String>emptySet(), true, true);
+            evict(stub.location);
+            return roots.get().get(host).findStub(path) != stub;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Turn the least recently used folders without indexed sub folders into placeholders,
+     * until the amount of indexed files is within the budget.
+     * Only called while the updates are locked.
+     * @param keep Location of the folder that is just indexed, which is never turned into a placeholder.
+     */
+    private void evict(Path keep) {
+        while (indexedFiles > lazyBudget) {
+            Map<String, FolderNode> current = roots.get();
+
+            List<FolderNode> leaves = new ArrayList<>();
+            long total = 0;
+            for (FolderNode root : current.values()) {
+                total += root.collectLeaves(leaves, keep);
+            }
+            if (total <= lazyBudget || leaves.isEmpty()) {
+                return;
+            }
+
+            leaves.sort((a, b) -> Long.compare(a.used, b.used));
+            HashSet<FolderNode> victims = new HashSet<>();
+            for (FolderNode leaf : leaves) {
+                if (total <= lazyBudget) {
+                    break;
+                }
+                victims.add(leaf);
+                total -= leaf.files.size();
+            }
+
+            HashMap<String, FolderNode> next = new HashMap<>();
+            for (Map.Entry<String, FolderNode> root : current.entrySet()) {
+                next.put(root.getKey(), root.getValue().unload(victims));
+            }
+            publish(current, next);
+        }
     }
 
     /**
@@ -69,7 +519,41 @@ public class FileManager {
      * @return Host exists or not.
      */
     public boolean hostExists(String host) {
-        return roots.containsKey(host);
+        return roots.get().containsKey(host);
+    }
+
+    /**
+     * Resolve a url of the given host in the flat index of the host.
+     * A url that isn't indexed, is resolved by walking the folder structure, to find the supported mime types.
+     * @param host Requested host.
+     * @param url Requested url.
+     * @return the lookup of the url, never null.
+     */
+    public Lookup lookup(String host, Url url) {
+        FolderNode node = roots.get().get(host);
+        if (node == null) {
+            return new Lookup(null, baseRuleSet.supportMimeType(url.getExtension()), baseRuleSet, baseRuleSet);
+        }
+
+        Lookup lookup = node.index.get(url.getLocation());
+
+        // The url walks into placeholders, which are indexed one by one before the url is resolved again.
+        while (lookup == null && lazyBudget > 0 && node.findStub(url.getPath()) != null && load(host, url.getPath())) {
+            node = roots.get().get(host);
+            lookup = node.index.get(url.getLocation());
+        }
+        if (lookup == null) {
+            return new Lookup(null, node.hasSupportedMime(url), null, node.ruleSet);
+        }
+
+        // The time is only written if it is outdated, so the requests of a folder don't all write the same field.
+        if (lazyBudget > 0 && lookup.node != null) {
+            long now = System.currentTimeMillis();
+            if (now - lookup.node.used >= USE_GRANULARITY) {
+                lookup.node.used = now;
+            }
+        }
+        return lookup;
     }
 
     /**
@@ -78,9 +562,8 @@ public class FileManager {
      * @param url Url to the given file.
      * @return If the file exists, the file. Else it will return null.
      */
-    public synchronized HttpFile getFile(String host, Url url) {
-        FolderNode node = roots.get(host);
-        return node != null ? node.getFile(url) : null;
+    public HttpFile getFile(String host, Url url) {
+        return lookup(host, url).getFile();
     }
 
     /**
@@ -88,14 +571,19 @@ public class FileManager {
      * @param host Requested host.
      * @return Rule set of the host.
      */
-    public synchronized RuleSet getRootRuleSet(String host) {
-        FolderNode node = roots.get(host);
+    public RuleSet getRootRuleSet(String host) {
+        FolderNode node = roots.get().get(host);
         return node != null ? node.getRuleSet() : null;
     }
 
-    public synchronized boolean hasSupportedMime(String host, Url url) {
-        FolderNode node = roots.get(host);
-        return node != null ? node.hasSupportedMime(url) : baseRuleSet.supportMimeType(url.getExtension());
+    /**
+     * Has the requested file of the given host a supported mime type.
+     * @param host Requested host.
+     * @param url Url to the given file.
+     * @return is the requested mime type supported.
+     */
+    public boolean hasSupportedMime(String host, Url url) {
+        return lookup(host, url).isSupported();
     }
 
     /**
@@ -104,157 +592,732 @@ public class FileManager {
     private class HostListener implements ConfigReaderListener {
 
         /**
-         * The given line in the host file is allowed.
-         * @param name Name of the property.
-         * @param args The amount of arguments included the name argument.
-         * @return Given property has 2 arguments or not.
+         * Indexing of the hosts that are read, not yet published.
+         */
+        private LinkedHashMap<String, IndexTask> tasks;
+
+        /**
+         * Roots stored in the snapshot, by their absolute location.
+         */
+        private Map<String, StoredFolder> stored;
+
+        /**
+         * Constructor.
+         * @param tasks Map to put the indexing of the read hosts into.
+         * @param stored Roots stored in the snapshot, by their absolute location.
+         */
+        HostListener(LinkedHashMap<String, IndexTask> tasks, Map<String, StoredFolder> stored) {
+            this.tasks = tasks;
+            this.stored = stored;
+        }
+
+        /**
+         * The given line in the host file is allowed.
+         * @param name Name of the property.
+         * @param args The amount of arguments included the name argument.
+         * @return Given property has 2 arguments or not.
+         */
+        @Override
+        public boolean allowedProperty(String name, int args) {
+            return args == 2;
+        }
+
+        /**
+         * Parse the given property into the host hash map.
+         * The indexing of the host is started at once, so the hosts are indexed in parallel.
+         * @param args Arguments of the property.
+         * @return Given property is correct formatted.
+         */
+        @Override
+        public boolean onReadProperty(String[] args) {
+            File root = new File(args[1]);
+            IndexTask task = new IndexTask(root, args[1], baseRuleSet, true, null, Collections.<String>emptySet(),
+                    stored.get(root.toPath().toAbsolutePath().normalize().toString()), new IndexProgress());
+            indexer.execute(task);
+            tasks.put(args[0], task);
+
+            if (defaultHost == null) {
+                defaultHost = args[0];
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Task that indexes a folder with its sub folders, executed by the {@link FileManager#indexer}.
+     */
+    private class IndexTask extends RecursiveTask<FolderNode> {
+
+        /**
+         * Version of the serialized form.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Folder to index.
+         */
+        private final File folder;
+
+        /**
+         * Path to the folder.
+         */
+        private final String path;
+
+        /**
+         * Rule settings of the parent folder.
+         */
+        private final RuleSet rules;
+
+        /**
+         * Is the folder the root of the host, defined in the host file.
+         */
+        private final boolean root;
+
+        /**
+         * Previous version of the folder, of which the unchanged sub folders are kept, or null.
+         */
+        private final FolderNode previous;
+
+        /**
+         * Names of the changed files and folders.
+         */
+        private final Set<String> changed;
+
+        /**
+         * Folder as stored in the snapshot, or null.
+         */
+        private final StoredFolder stored;
+
+        /**
+         * Progress of the indexing, shared by all tasks of a host.
+         */
+        private final IndexProgress progress;
+
+        /**
+         * Constructor.
+         * @param folder Folder to index.
+         * @param path Path to the folder.
+         * @param rules Rule settings of the parent folder.
+         * @param root Is the folder the root of the host, defined in the host file.
+         * @param previous Previous version of the folder, of which the unchanged sub folders are kept, or null.
+         * @param changed Names of the changed files and folders.
+         * @param stored Folder as stored in the snapshot, or null.
+         * @param progress Progress of the indexing.
+         */
+        IndexTask(File folder, String path, RuleSet rules, boolean root, FolderNode previous, Set<String> changed,
+                  StoredFolder stored, IndexProgress progress) {
+            this.folder = folder;
+            this.path = path;
+            this.rules = rules;
+            this.root = root;
+            this.previous = previous;
+            this.changed = changed;
+            this.stored = stored;
+            this.progress = progress;
+        }
+
+        /**
+         * Index the folder, the sub folders are indexed by forked tasks.
+         * @return the indexed folder.
+         */
+        @Override
+        protected FolderNode compute() {
+            long start = System.nanoTime();
+            FolderNode node = new FolderNode(folder, path, rules, root, previous, changed, stored, progress);
+            if (root) {
+                progress.time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Progress of the indexing of a host.
+     */
+    private static class IndexProgress {
+
+        /**
+         * Amount of indexed folders.
+         */
+        private final LongAdder folders = new LongAdder();
+
+        /**
+         * Amount of indexed files.
+         */
+        private final LongAdder files = new LongAdder();
+
+        /**
+         * Amount of folders restored from the snapshot, without listing them.
+         */
+        private final LongAdder restored = new LongAdder();
+
+        /**
+         * Milliseconds it took to index the host, known when the root is indexed.
+         */
+        private volatile long time;
+    }
+
+    /**
+     * Virtual folder that holds information about the folder and his files and folders.
+     * Al scanned folders will be saved as such object.
+     *
+     * If a HTTP request ask for a file, than it will be lookup into this type of object.
+     * If it exists in this type of object it will maybe get the requested file or {@link network.Response#FILE_NOT_FOUND} error.
+     * Depended of the file really exists or not.
+     * If not exists in this type of object he will always get a {@link network.Response#FILE_NOT_FOUND} error.
+     */
+    private class FolderNode {
+
+        /**
+         * Generic file of the folder.
+         * With type of file is generic is defined in the rule settings file.
+         * The name of the generic is always "index", but the extension is various and
+         * depended on the definition in the rule settings file.
+         */
+        private final String generic;
+
+        /**
+         * Files of the folder.
+         */
+        private final Map<String, HttpFile> files;
+
+        /**
+         * Folders of the folder.
+         */
+        private final Map<String, FolderNode> folders;
+
+        /**
+         * Rule settings of the folder.
+         */
+        private final RuleSet ruleSet;
+
+        /**
+         * Folder.
+         */
+        private final File folder;
+
+        /**
+         * Path to the folder.
+         */
+        private final String path;
+
+        /**
+         * Absolute location of the folder, used to find the folder of a change.
+         */
+        private final Path location;
+
+        /**
+         * Flat index of the urls of all files and folders, only available in the root of a host.
+         */
+        private final Map<String, Lookup> index;
+
+        /**
+         * Modification time of the folder when it was listed.
+         */
+        private final long modified;
+
+        /**
+         * Modification time of the rules settings file of the folder, or -1 if the folder has none.
+         */
+        private final long rulesModified;
+
+        /**
+         * Time the folder was listed.
+         */
+        private final long scanned;
+
+        /**
+         * The folder is indexed, otherwise it is a placeholder that is indexed when it is requested.
+         */
+        private final boolean loaded;
+
+        /**
+         * Time the folder was last requested, only kept in the lazy mode.
+         */
+        private volatile long used;
+
+        /**
+         * Constructor of a placeholder of a folder, that is indexed when it is requested.
+         * The placeholder is never trusted by a snapshot.
+         * @param folder Folder.
+         * @param path Path to the folder.
+         * @param rules Rule settings of the parent folder.
+         */
+        FolderNode(File folder, String path, RuleSet rules) {
+            this.folder = folder;
+            this.path = path;
+            location = folder.toPath().toAbsolutePath().normalize();
+            ruleSet = rules;
+            generic = null;
+            files = Collections.emptyMap();
+            folders = Collections.emptyMap();
+            index = null;
+            modified = -1;
+            rulesModified = -1;
+            scanned = 0;
+            loaded = false;
+        }
+
+        /**
+         * Constructor of a folder that is copied, because some of its sub folders are changed.
+         * @param node Folder to copy.
+         * @param folders Sub folders of the copy.
+         */
+        FolderNode(FolderNode node, Map<String, FolderNode> folders) {
+            generic = node.generic;
+            files = node.files;
+            ruleSet = node.ruleSet;
+            folder = node.folder;
+            path = node.path;
+            location = node.location;
+            modified = node.modified;
+            rulesModified = node.rulesModified;
+            scanned = node.scanned;
+            loaded = node.loaded;
+            used = node.used;
+
+            this.folders = Collections.unmodifiableMap(folders);
+
+            index = node.index;
+        }
+
+        /**
+         * Constructor.
+         * Only called by a {@link IndexTask}, the new sub folders are indexed by forked tasks,
+         * or become placeholders in the lazy mode.
+         * @param folder Folder.
+         * @param path Path to the folder.
+         * @param root Is the folder the root of the host, defined in the host file.
+         * @param previous Previous version of the folder, of which the unchanged sub folders are kept, or null.
+         * @param changed Names of the changed files and folders.
+         * @param stored Folder as stored in the snapshot, or null.
+         * @param progress Progress of the indexing.
+         * @throws NullPointerException folder == null
+         */
+        FolderNode(File folder, String path, RuleSet rules, boolean root, FolderNode previous, Set<String> changed,
+                   StoredFolder stored, IndexProgress progress) throws NullPointerException {
+            if (folder == null) {
+                throw new NullPointerException("folder == null");
+            }
+
+            this.folder = folder;
+            this.path = path;
+            location = folder.toPath().toAbsolutePath().normalize();
+            loaded = true;
+            used = System.currentTimeMillis();
+
+            HashMap<String, HttpFile> files = new HashMap<>();
+            HashMap<String, FolderNode> folders = new HashMap<>();
+            String generic = null;
+
+            if (watcher != null) {
+                watcher.register(folder);
+            }
+
+            // The folder and its rules settings file are asked before the folder is listed,
+            // so a change during the listing makes the snapshot outdated.
+            long scanned = System.currentTimeMillis();
+            long modified = folder.lastModified();
+            File ruleFile = new File(folder, "rules.set");
+            rulesModified = IndexSnapshot.modified(ruleFile);
+
+            // Changed rules settings can change the indexing of all sub folders, so the snapshot isn't used anymore.
+            if (stored != null && !stored.hasRules(rulesModified)) {
+                stored = null;
+            }
+
+            // Processing the rule settings file.
+            if (rulesModified != -1) {
+                ruleSet = new RuleSet(ruleFile, rules, root);
+            } else {
+                ruleSet = rules;
+            }
+
+            List<IndexTask> tasks = new ArrayList<>();
+            if (stored != null && stored.hasEntries(modified)) {
+
+                // The entries of the folder are unchanged, the files are restored and the sub folders validated.
+                scanned = stored.scanned;
+                for (StoredFile entry : stored.files) {
+                    HttpFile file = createFile(entry.name, entry.modified, entry.length, null, entry);
+                    if (file != null) {
+                        files.put(entry.name, file);
+                    }
+                }
+                for (Map.Entry<String, StoredFolder> entry : stored.folders.entrySet()) {
+                    if (lazyBudget > 0) {
+                        folders.put(entry.getKey(), new FolderNode(new File(folder, entry.getKey()), path + entry.getKey() + "/", ruleSet));
+                    } else {
+                        tasks.add(fork(entry.getKey(), entry.getValue(), progress));
+                    }
+                }
+                progress.restored.increment();
+            } else {
+
+                // Read the entries of the folder with their attributes at once.
+                HashMap<String, BasicFileAttributes> entries = new HashMap<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(location)) {
+                    for (Path entry : stream) {
+                        try {
+                            entries.put(entry.getFileName().toString(), Files.readAttributes(entry, BasicFileAttributes.class));
+                        } catch (IOException e) {
+                            //
+                        }
+                    }
+                } catch (IOException e) {
+                    //
+                }
+
+                // Scanning all folders and files and build recursive data structure of files and folders.
+                // Exclude all files and folder that must excluded, by following the rules of the rule settings.
+                // The new sub folders are indexed by forked tasks, while the files of this folder are scanned.
+                for (Map.Entry<String, BasicFileAttributes> entry : entries.entrySet()) {
+                    String name = entry.getKey();
+                    BasicFileAttributes attributes = entry.getValue();
+                    if (!ruleSet.index(name, attributes.isRegularFile())) {
+                        continue;
+                    }
+
+                    if (attributes.isDirectory()) {
+                        FolderNode node = previous != null && !changed.contains(name) ? previous.folders.get(name) : null;
+                        if (node != null) {
+                            folders.put(name, node);
+                        } else if (lazyBudget > 0) {
+                            folders.put(name, new FolderNode(new File(folder, name), path + name + "/", ruleSet));
+                        } else {
+                            tasks.add(fork(name, stored != null ? stored.folders.get(name) : null, progress));
+                        }
+                    } else if (attributes.isRegularFile()) {
+                        HttpFile file = createFile(name, attributes.lastModifiedTime().toMillis(), attributes.size(), entries, null);
+                        if (file != null) {
+                            files.put(name, file);
+                        }
+                    }
+                }
+            }
+
+            for (String name : files.keySet()) {
+
+                // if generic, set these file as the generic file of the folder.
+                if (ruleSet.isGenericFile(name)) {
+                    generic = name;
+                }
+            }
+
+            for (IndexTask task : tasks) {
+                folders.put(task.folder.getName(), task.join());
+            }
+
+            progress.folders.increment();
+            progress.files.add(files.size());
+
+            this.modified = modified;
+            this.scanned = scanned;
+
+            this.files = Collections.unmodifiableMap(files);
+            this.folders = Collections.unmodifiableMap(folders);
+            this.generic = generic;
+
+            index = root ? (previous != null ? previous.index : createIndex()) : null;
+        }
+
+        /**
+         * Find the first placeholder on the path of a url.
+         * @param path Path of the url.
+         * @return the placeholder, or null if the path has no placeholder.
+         */
+        FolderNode findStub(String[] path) {
+            if (path == null) {
+                return null;
+            }
+
+            FolderNode node = this;
+            for (String name : path) {
+                node = node.folders.get(name);
+                if (node == null) {
+                    return null;
+                }
+                if (!node.loaded) {
+                    return node;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Collect the indexed sub folders without indexed sub folders, that can become placeholders.
+         * @param leaves List to add the sub folders to.
+         * @param keep Location of a folder that must stay indexed.
+         * @return the amount of indexed files of the folder and its sub folders.
+         */
+        long collectLeaves(List<FolderNode> leaves, Path keep) {
+            long total = files.size();
+            for (FolderNode node : folders.values()) {
+                if (node.loaded) {
+                    total += node.collectLeaves(leaves, keep);
+                    if (!node.hasLoadedFolders() && !node.location.equals(keep)) {
+                        leaves.add(node);
+                    }
+                }
+            }
+            return total;
+        }
+
+        /**
+         * Checking of the folder has indexed sub folders.
+         * @return the folder has indexed sub folders.
          */
-        @Override
-        public boolean allowedProperty(String name, int args) {
-            return args == 2;
+        boolean hasLoadedFolders() {
+            for (FolderNode node : folders.values()) {
+                if (node.loaded) {
+                    return true;
+                }
+            }
+            return false;
         }
 
         /**
-         * Parse the given property into the host hash map.
-         * @param args Arguments of the property.
-         * @return Given property is correct formatted.
+         * Turn the given sub folders into placeholders.
+         * @param victims Sub folders to turn into placeholders.
+         * @return a copy of the folder if one of its sub folders is changed, otherwise the folder itself.
          */
-        @Override
-        public boolean onReadProperty(String[] args) {
-            roots.put(args[0], new FolderNode(args[1], baseRuleSet));
-
-            if (defaultHost == null) {
-                defaultHost = args[0];
+        FolderNode unload(Set<FolderNode> victims) {
+            HashMap<String, FolderNode> changed = null;
+            for (Map.Entry<String, FolderNode> entry : folders.entrySet()) {
+                FolderNode node = entry.getValue();
+                FolderNode replaced = victims.contains(node) ? new FolderNode(node.folder, node.path, ruleSet) :
+                        node.loaded ? node.unload(victims) : node;
+                if (replaced != node) {
+                    if (changed == null) {
+                        changed = new HashMap<>(folders);
+                    }
+                    changed.put(entry.getKey(), replaced);
+                }
             }
-
-            return true;
+            return changed != null ? new FolderNode(this, changed) : this;
         }
-    }
-
-    /**
-     * Virtual folder that holds information about the folder and his files and folders.
-     * Al scanned folders will be saved as such object.
-     *
-     * If a HTTP request ask for a file, than it will be lookup into this type of object.
-     * If it exists in this type of object it will maybe get the requested file or {@link network.Response#FILE_NOT_FOUND} error.
-     * Depended of the file really exists or not.
-     * If not exists in this type of object he will always get a {@link network.Response#FILE_NOT_FOUND} error.
-     */
-    private class FolderNode {
 
         /**
-         * Generic file of the folder.
-         * With type of file is generic is defined in the rule settings file.
-         * The name of the generic is always "index", but the extension is various and
-         * depended on the definition in the rule settings file.
+         * Fork the indexing of a sub folder.
+         * @param name Name of the sub folder.
+         * @param stored Sub folder as stored in the snapshot, or null.
+         * @param progress Progress of the indexing.
+         * @return the forked task.
          */
-        private String generic;
+        private IndexTask fork(String name, StoredFolder stored, IndexProgress progress) {
+            IndexTask task = new IndexTask(new File(folder, name), path + name + "/", ruleSet, false,
+                    null, Collections.<String>emptySet(), stored, progress);
+            task.fork();
+            return task;
+        }
 
         /**
-         * Files of the folder.
+         * Create a file of the folder.
+         * The precompressed sidecar files are found in the entries of the folder, or restored from the snapshot.
+         * @param name Name of the file.
+         * @param lastModified Modification time of the file in milliseconds.
+         * @param length Length of the file.
+         * @param entries Entries of the folder with their attributes, or null if the file is restored.
+         * @param stored File as stored in the snapshot, or null if the file is scanned.
+         * @return the file, or null if the file's mime type isn't supported or the file is denied from indexing.
          */
-        private HashMap<String, HttpFile> files;
+        private HttpFile createFile(String name, long lastModified, long length,
+                                    Map<String, BasicFileAttributes> entries, StoredFile stored) {
+            String extension = getExtension(name);
+            Mime mime = ruleSet.getMimeType(extension);
+            if (mime == null || !ruleSet.indexExtension(extension)) {
+                return null;
+            }
+
+            HttpFile file = new HttpFile(mime, path + name);
+            if (stored != null && stored.variants.length > 0) {
+
+                // A file can be altered in place without changing the folder, so the sidecars are checked again.
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(Paths.get(path + name), BasicFileAttributes.class);
+                    lastModified = attributes.lastModifiedTime().toMillis();
+                    length = attributes.size();
+                } catch (IOException e) {
+                    return null;
+                }
+                file.restoreVariants(stored, lastModified);
+            } else if (stored == null && !mime.isBinary()) {
+                file.findVariants(entries, name, lastModified);
+            }
+            file.setCompression(ruleSet.getCompressMinSize(extension));
+            file.setValidator(lastModified, length);
+            return file;
+        }
 
         /**
-         * Folders of the folder.
+         * Write the folder and its sub folders to a snapshot.
+         * @param out Snapshot stream.
+         * @throws IOException Exception.
          */
-        private HashMap<String, FolderNode> folders;
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(modified);
+            out.writeLong(rulesModified);
+            out.writeLong(scanned);
+
+            out.writeInt(files.size());
+            for (Map.Entry<String, HttpFile> file : files.entrySet()) {
+                out.writeUTF(file.getKey());
+                file.getValue().write(out);
+            }
+
+            out.writeInt(folders.size());
+            for (Map.Entry<String, FolderNode> folder : folders.entrySet()) {
+                out.writeUTF(folder.getKey());
+                folder.getValue().write(out);
+            }
+        }
 
         /**
-         * Rule settings of the folder.
+         * Create the flat index of the urls of the files and folders of this root folder.
+         * The flat index is shared by the next versions of the root, which change it by their changed folders.
+         * @return the flat index.
          */
-        private RuleSet ruleSet;
+        private Map<String, Lookup> createIndex() {
+            ConcurrentHashMap<String, Lookup> index = new ConcurrentHashMap<>();
+            addToIndex(index, "/", null, ruleSet);
+            return index;
+        }
 
         /**
-         * Constructor.
-         * @param root Path to the folder.
+         * Count the indexed files of the folder and its indexed sub folders.
+         * @return the amount of indexed files.
          */
-        FolderNode(String root, RuleSet rules) {
-            this(new File(root), root, rules, true);
+        long countFiles() {
+            long total = files.size();
+            for (FolderNode node : folders.values()) {
+                if (node.loaded) {
+                    total += node.countFiles();
+                }
+            }
+            return total;
         }
 
         /**
-         * Constructor.
-         * @param folder Folder.
-         * @param path Path to the folder.
-         * @param root Is the folder the root of the host, defined in the host file.
-         * @throws NullPointerException folder == null
+         * Add the urls of the files and folders to the flat index, that are changed since the previous version.
+         * The sub folders that are the same in both versions are skipped.
+         * @param index Flat index.
+         * @param prefix Url of the folder, ending with a slash.
+         * @param previous Previous version of the folder, or null if the folder is new.
+         * @param rootRuleSet Rule settings of the root of the host.
+         * @return the amount of added files.
          */
-        FolderNode(File folder, String path, RuleSet rules, boolean root) throws NullPointerException {
-            if (folder == null) {
-                throw new NullPointerException("folder == null");
+        long addToIndex(Map<String, Lookup> index, String prefix, FolderNode previous, RuleSet rootRuleSet) {
+            Lookup lookup = new Lookup(generic != null ? files.get(generic) : null,
+                    ruleSet.supportMimeType(ruleSet.getGenericExtension()), ruleSet, rootRuleSet, this);
+            for (String url : getFolderUrls(prefix)) {
+                index.put(url, lookup);
             }
 
-            files = new HashMap<>();
-            folders = new HashMap<>();
-
-            // Processing the rule settings file.
-            File ruleFile = new File(folder + "/rules.set");
-            if (ruleFile.exists()) {
-                ruleSet = new RuleSet(ruleFile, rules, root);
-            } else {
-                ruleSet = rules;
+            for (Map.Entry<String, HttpFile> file : files.entrySet()) {
+                String name = file.getKey();
+                int dot = name.lastIndexOf('.');
+                if (dot != -1 && dot < name.length() - 1) {
+                    index.put(prefix + name, new Lookup(file.getValue(),
+                            ruleSet.supportMimeType(name.substring(dot + 1)), ruleSet, rootRuleSet, this));
+                }
             }
 
-            // Scanning all folders and files and build recursive data structure of files and folders.
-            // Exclude all files and folder that must excluded, by following the rules of the rule settings.
-            File[] _files = folder.listFiles();
-            if (_files != null) {
-                for (File entry : _files) {
-                    if (!ruleSet.index(entry)) {
-                        continue;
-                    }
+            // A placeholder has no urls yet, it is indexed when it is requested.
+            long added = files.size();
+            for (Map.Entry<String, FolderNode> folder : folders.entrySet()) {
+                FolderNode node = folder.getValue();
+                FolderNode before = previous != null ? previous.folders.get(folder.getKey()) : null;
+                if (node.loaded && node != before) {
+                    added += node.addToIndex(index, prefix + folder.getKey() + "/", before, rootRuleSet);
+                }
+            }
+            return added;
+        }
 
-                    if (entry.isDirectory()) {
-                        folders.put(entry.getName(), new FolderNode(entry, path + entry.getName() + "/", ruleSet, false));
-                    } else if (entry.isFile()) {
-                        String extension = getExtension(entry);
-                        Mime mime = ruleSet.getMimeType(extension);
+        /**
+         * Remove the urls of the previous version of the folder from the flat index, that are gone in this version.
+         * The urls of this version are added before, so an url of the previous version still points to it if it is gone.
+         * @param index Flat index.
+         * @param prefix Url of the folder, ending with a slash.
+         * @param previous Previous version of the folder.
+         * @return the amount of removed files.
+         */
+        long removeFromIndex(Map<String, Lookup> index, String prefix, FolderNode previous) {
+            if (!previous.loaded) {
+                return 0;
+            }
 
-                        // if the file's mime type isn't supported or the file is denied from indexing the scanned file will be excluded.
-                        if (mime == null || !ruleSet.indexExtension(extension)) {
-                            continue;
-                        }
+            long removed = previous.removeOwnUrls(index, prefix);
+            for (Map.Entry<String, FolderNode> folder : previous.folders.entrySet()) {
+                FolderNode before = folder.getValue();
+                FolderNode node = folders.get(folder.getKey());
+                if (!before.loaded || node == before) {
+                    continue;
+                }
 
-                        files.put(entry.getName(), new HttpFile(mime, path + entry.getName()));
+                String url = prefix + folder.getKey() + "/";
+                removed += node != null && node.loaded ? node.removeFromIndex(index, url, before) : before.removeUrls(index, url);
+            }
+            return removed;
+        }
 
-                        // if generic, set these file as the generic file of the folder.
-                        if (ruleSet.isGenericFile(entry)) {
-                            generic = entry.getName();
-                        }
-                    }
+        /**
+         * Remove the urls of the folder and its indexed sub folders from the flat index.
+         * @param index Flat index.
+         * @param prefix Url of the folder, ending with a slash.
+         * @return the amount of removed files.
+         */
+        private long removeUrls(Map<String, Lookup> index, String prefix) {
+            long removed = removeOwnUrls(index, prefix);
+            for (Map.Entry<String, FolderNode> folder : folders.entrySet()) {
+                if (folder.getValue().loaded) {
+                    removed += folder.getValue().removeUrls(index, prefix + folder.getKey() + "/");
                 }
             }
+            return removed;
         }
 
         /**
-         * Get a file of the given url.
-         * @param url Requested url.
-         * @return Requested file.
+         * Remove the urls of the folder and its files from the flat index, that still point to this version of the folder.
+         * @param index Flat index.
+         * @param prefix Url of the folder, ending with a slash.
+         * @return the amount of removed files.
          */
-        HttpFile getFile(Url url) {
-            String[] path = url.getPath();
-            if (path == null || path[0].equals("")) {
-                return url.isFolder() ? files.get(generic) : files.get(url.getFile());
+        private long removeOwnUrls(Map<String, Lookup> index, String prefix) {
+            for (String url : getFolderUrls(prefix)) {
+                removeUrl(index, url);
             }
-
-            return getFile(url, path, 0);
+            for (String name : files.keySet()) {
+                removeUrl(index, prefix + name);
+            }
+            return files.size();
         }
 
         /**
-         * Get a file of the given url.
-         * @param url Requested url.
-         * @param path Path to the requested file.
-         * @param index Reading index of the path array.
-         * @return Requested file.
+         * Remove an url from the flat index, if it points to this version of the folder.
+         * @param index Flat index.
+         * @param url Url to remove.
          */
-        HttpFile getFile(Url url, String[] path, int index) {
-
-            if (path.length <= index) {
-                return url.isFolder() ? files.get(generic) : files.get(url.getFile());
+        private void removeUrl(Map<String, Lookup> index, String url) {
+            Lookup lookup = index.get(url);
+            if (lookup != null && lookup.node == this) {
+                index.remove(url, lookup);
             }
+        }
 
-            return folders.containsKey(path[index]) ? folders.get(path[index]).getFile(url, path, index + 1) : null;
+        /**
+         * Get the urls of the folder.
+         * The urls are read the way a {@link Url} is read: a url of which the last segment has no dot is a folder,
+         * with or without slash at the end.
+         * @param prefix Url of the folder, ending with a slash.
+         * @return the urls of the folder.
+         */
+        private List<String> getFolderUrls(String prefix) {
+            if (prefix.length() > 1 && prefix.lastIndexOf('.') < prefix.lastIndexOf('/', prefix.length() - 2)) {
+                return Arrays.asList(prefix, prefix.substring(0, prefix.length() - 1));
+            }
+            return Collections.singletonList(prefix);
         }
 
         /**
@@ -284,6 +1347,20 @@ public class FileManager {
                     ruleSet.supportMimeType(url.isFolder() ? ruleSet.getGenericExtension() : url.getExtension());
         }
 
+        /**
+         * Register the folder and its sub folders at the watcher, placeholders are registered when they are indexed.
+         */
+        void register() {
+            if (!loaded) {
+                return;
+            }
+
+            watcher.register(folder);
+            for (FolderNode node : folders.values()) {
+                node.register();
+            }
+        }
+
         /**
          * Get the rule set of the folder.
          * @return the rule set of the folder.
@@ -294,13 +1371,13 @@ public class FileManager {
 
         /**
          * Get the extension of a file.
-         * @param file File to get the extension.
+         * @param name Name of the file to get the extension.
          * @return the extension of a file.
          */
-        String getExtension(File file) {
-            int i = file.getName().lastIndexOf(".");
+        String getExtension(String name) {
+            int i = name.lastIndexOf(".");
             if (i > 0) {
-                return file.getName().substring(i + 1);
+                return name.substring(i + 1);
             }
             return "";
         }
@@ -314,6 +1391,96 @@ public class FileManager {
         return defaultHost;
     }
 
+    /**
+     * Result of resolving a url, that holds everything that is needed to respond the url.
+     */
+    public static class Lookup {
+
+        /**
+         * Requested file, or null if not found.
+         */
+        private final HttpFile file;
+
+        /**
+         * The mime type of the url is supported.
+         */
+        private final boolean supported;
+
+        /**
+         * Rule settings of the folder of the file, or null if the folder isn't indexed.
+         */
+        private final RuleSet ruleSet;
+
+        /**
+         * Rule settings of the root of the host.
+         */
+        private final RuleSet rootRuleSet;
+
+        /**
+         * Folder of the file, or null if the folder isn't indexed.
+         */
+        private final FolderNode node;
+
+        /**
+         * Constructor.
+         * @param file Requested file, or null if not found.
+         * @param supported The mime type of the url is supported.
+         * @param ruleSet Rule settings of the folder of the file, or null if the folder isn't indexed.
+         * @param rootRuleSet Rule settings of the root of the host.
+         */
+        Lookup(HttpFile file, boolean supported, RuleSet ruleSet, RuleSet rootRuleSet) {
+            this(file, supported, ruleSet, rootRuleSet, null);
+        }
+
+        /**
+         * Constructor.
+         * @param file Requested file, or null if not found.
+         * @param supported The mime type of the url is supported.
+         * @param ruleSet Rule settings of the folder of the file, or null if the folder isn't indexed.
+         * @param rootRuleSet Rule settings of the root of the host.
+         * @param node Folder of the file, or null if the folder isn't indexed.
+         */
+        Lookup(HttpFile file, boolean supported, RuleSet ruleSet, RuleSet rootRuleSet, FolderNode node) {
+            this.file = file;
+            this.supported = supported;
+            this.ruleSet = ruleSet;
+            this.rootRuleSet = rootRuleSet;
+            this.node = node;
+        }
+
+        /**
+         * Get the requested file.
+         * @return the requested file, or null if not found.
+         */
+        public HttpFile getFile() {
+            return file;
+        }
+
+        /**
+         * Checking of the mime type of the url is supported.
+         * @return the mime type is supported.
+         */
+        public boolean isSupported() {
+            return supported;
+        }
+
+        /**
+         * Get the rule settings of the folder of the file.
+         * @return the rule settings, or null if the folder isn't indexed.
+         */
+        public RuleSet getRuleSet() {
+            return ruleSet;
+        }
+
+        /**
+         * Get the rule settings of the root of the host.
+         * @return the rule settings of the root.
+         */
+        public RuleSet getRootRuleSet() {
+            return rootRuleSet;
+        }
+    }
+
     /**
      * Virtual file object that holds information about a file.
      */
@@ -329,6 +1496,51 @@ public class FileManager {
          */
         private String path;
 
+        /**
+         * Content coding of the file, or null if the file isn't compressed.
+         */
+        private String encoding;
+
+        /**
+         * Encoded content encoding header line of the file, or null if the file isn't compressed.
+         */
+        private byte[] contentEncoding;
+
+        /**
+         * Precompressed variants of the file, in order of preference.
+         */
+        private HttpFile[] variants = new HttpFile[0];
+
+        /**
+         * Variant of the file that is compressed on the fly, or null if the file isn't compressed on the fly.
+         */
+        private HttpFile compressed;
+
+        /**
+         * Original file of the variant that is compressed on the fly, or null if this isn't such variant.
+         */
+        private HttpFile original;
+
+        /**
+         * Minimum size of the file to compress on the fly.
+         */
+        private long compressMinSize = -1;
+
+        /**
+         * The response of the file depends on the accepted encodings of the client.
+         */
+        private boolean negotiated;
+
+        /**
+         * Validator of the current version of the file.
+         */
+        private volatile Validator validator;
+
+        /**
+         * Time in milliseconds of the last check of the validator against the file system.
+         */
+        private volatile long checked;
+
         /**
          * Constructor.
          * @param mime Mime type of the file.
@@ -339,6 +1551,143 @@ public class FileManager {
             this.path = path;
         }
 
+        /**
+         * Constructor of a precompressed variant.
+         * @param mime Mime type of the original file.
+         * @param path Path to the compressed file.
+         * @param sidecar Index of the kind of sidecar file.
+         */
+        HttpFile(Mime mime, String path, int sidecar) {
+            this(mime, path);
+            encoding = SIDECAR_CODINGS[sidecar];
+            contentEncoding = SIDECAR_HEADERS[sidecar];
+            negotiated = true;
+        }
+
+        /**
+         * Find the precompressed sidecar files of the file, like "style.css.gz" for "style.css".
+         * A sidecar that is older than the file is ignored, because it is outdated.
+         * @param entries Entries of the folder of the file, with their attributes.
+         * @param name Name of the scanned file.
+         * @param lastModified Modification time of the scanned file in milliseconds.
+         */
+        void findVariants(Map<String, BasicFileAttributes> entries, String name, long lastModified) {
+            HttpFile[] found = new HttpFile[SIDECAR_SUFFIXES.length];
+
+            int count = 0;
+            for (int i = 0; i < SIDECAR_SUFFIXES.length; i++) {
+                BasicFileAttributes sidecar = entries.get(name + SIDECAR_SUFFIXES[i]);
+                if (sidecar != null && sidecar.isRegularFile() && sidecar.lastModifiedTime().toMillis() >= lastModified) {
+                    found[count] = new HttpFile(mime, path + SIDECAR_SUFFIXES[i], i);
+                    found[count++].setValidator(sidecar.lastModifiedTime().toMillis(), sidecar.size());
+                }
+            }
+
+            variants = Arrays.copyOf(found, count);
+            negotiated = count > 0;
+        }
+
+        /**
+         * Restore the precompressed sidecar files of the file from the snapshot.
+         * The sidecars are checked against the file system, a sidecar that is removed or older than the file is ignored.
+         * @param stored File as stored in the snapshot.
+         * @param lastModified Current modification time of the file in milliseconds.
+         */
+        void restoreVariants(StoredFile stored, long lastModified) {
+            HttpFile[] found = new HttpFile[stored.variants.length];
+
+            int count = 0;
+            for (StoredFile sidecar : stored.variants) {
+                String location = path + SIDECAR_SUFFIXES[sidecar.sidecar];
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(Paths.get(location), BasicFileAttributes.class);
+                    if (attributes.isRegularFile() && attributes.lastModifiedTime().toMillis() >= lastModified) {
+                        found[count] = new HttpFile(mime, location, sidecar.sidecar);
+                        found[count++].setValidator(attributes.lastModifiedTime().toMillis(), attributes.size());
+                    }
+                } catch (IOException e) {
+                    //
+                }
+            }
+
+            variants = Arrays.copyOf(found, count);
+            negotiated = count > 0;
+        }
+
+        /**
+         * Write the file and its precompressed sidecar files to a snapshot.
+         * @param out Snapshot stream.
+         * @throws IOException Exception.
+         */
+        void write(DataOutputStream out) throws IOException {
+            Validator current = getValidator();
+            out.writeLong(current.getLength());
+            out.writeLong(current.getLastModified());
+
+            out.writeByte(variants.length);
+            for (HttpFile variant : variants) {
+                for (int i = 0; i < SIDECAR_SUFFIXES.length; i++) {
+                    if (variant.contentEncoding == SIDECAR_HEADERS[i]) {
+                        Validator sidecar = variant.getValidator();
+                        out.writeByte(i);
+                        out.writeLong(sidecar.getLength());
+                        out.writeLong(sidecar.getLastModified());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Set the compression on the fly of the file.
+         * A file with a gzip sidecar isn't compressed on the fly.
+         * @param minSize Minimum size of the file to compress, -1 if the file isn't compressed.
+         */
+        void setCompression(long minSize) {
+            for (HttpFile variant : variants) {
+                if (variant.contentEncoding == SIDECAR_HEADERS[GZIP]) {
+                    return;
+                }
+            }
+
+            if (minSize >= 0) {
+                compressMinSize = minSize;
+                compressed = new HttpFile(mime, path, GZIP);
+                compressed.original = this;
+                negotiated = true;
+            }
+        }
+
+        /**
+         * Get the best variant of the file for the request.
+         * @param request Request of the client.
+         * @return the most preferred precompressed variant that the client accepts, otherwise the file itself.
+         */
+        public HttpFile getVariant(Request request) {
+            for (HttpFile variant : variants) {
+                if (request.acceptsEncoding(variant.encoding)) {
+                    return variant;
+                }
+            }
+
+            // Compressing on the fly is only done if the compressed content can be cached.
+            // A file that is too small or not worth compressing is responded as itself,
+            // so the request is validated against the entity tag that is actually sent.
+            if (compressed != null && cache != null && request.acceptsEncoding(compressed.encoding)
+                    && compressed.getCached() != null) {
+                return compressed;
+            }
+            return this;
+        }
+
+        /**
+         * Get the original file of a variant that is compressed on the fly.
+         * If the file can't be compressed, the original file is responded instead.
+         * @return the original file, or this file if it isn't compressed on the fly.
+         */
+        public HttpFile getOriginal() {
+            return original != null ? original : this;
+        }
+
         /**
          * Get the file.
          * @return the file.
@@ -347,6 +1696,78 @@ public class FileManager {
             return new File(path);
         }
 
+        /**
+         * Get the cached content of the file.
+         * The content of a variant that is compressed on the fly is only available from the cache.
+         * @return read-only content of the file, or null if the file isn't cached.
+         */
+        public ByteBuffer getCached() {
+            if (cache == null) {
+                return null;
+            }
+            return original != null ? cache.getCompressed(path, original.compressMinSize) : cache.get(path);
+        }
+
+        /**
+         * Set the validator of the file from the attributes that are read while scanning.
+         * @param lastModified Modification time of the file in milliseconds.
+         * @param length Length of the file.
+         */
+        void setValidator(long lastModified, long length) {
+            validator = new Validator(lastModified, length, null);
+            checked = System.currentTimeMillis();
+        }
+
+        /**
+         * Get the validator of the current version of the file.
+         * The file system is asked at most once per {@link FileCache#CHECK_INTERVAL} milliseconds,
+         * if the file is altered a new validator is created.
+         * @return the validator of the file.
+         */
+        public Validator getValidator() {
+            if (original != null) {
+
+                // A variant compressed on the fly has the version of the original file, with a own entity tag.
+                Validator source = original.getValidator();
+                Validator current = validator;
+                if (current == null || current.getLastModified() != source.getLastModified() || current.getLength() != source.getLength()) {
+                    validator = current = new Validator(source.getLastModified(), source.getLength(), encoding);
+                }
+                return current;
+            }
+
+            Validator current = validator;
+            long now = System.currentTimeMillis();
+            if (current != null && now - checked < FileCache.CHECK_INTERVAL) {
+                return current;
+            }
+
+            File file = new File(path);
+            long lastModified = file.lastModified();
+            long length = file.length();
+            if (current == null || current.getLastModified() != lastModified || current.getLength() != length) {
+                validator = current = new Validator(lastModified, length, null);
+            }
+            checked = now;
+            return current;
+        }
+
+        /**
+         * Get the encoded content encoding header line of the file.
+         * @return the encoded content encoding header line, or null if the file isn't compressed.
+         */
+        public byte[] getContentEncoding() {
+            return contentEncoding;
+        }
+
+        /**
+         * Checking of the response of the file depends on the accepted encodings of the client.
+         * @return the file has precompressed variants, or is one.
+         */
+        public boolean isNegotiated() {
+            return negotiated;
+        }
+
         /**
          * Get mime type of the file.
          * @return mime type of the file.
@@ -0,0 +1,168 @@
+package files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watcher of the indexed folders, that keeps the {@link FileManager} up to date while the server is running.
+ *
+ * Every indexed folder is registered at a {@link WatchService}. The changes are collected until the folders
+ * are quiet for {@link FileWatcher#QUIET_PERIOD} milliseconds, so a deployment of many files is handled at once.
+ * After that only the changed folders are indexed again. A folder of which the rules settings file is changed
+ * is indexed again with all its sub folders, because the rules have influence on the sub folders.
+ */
+public class FileWatcher implements Runnable {
+
+    /**
+     * Milliseconds without changes, before the changes are handled.
+     */
+    private static final long QUIET_PERIOD = 200;
+
+    /**
+     * Name of the rules settings file of a folder.
+     */
+    private static final String RULES_FILE = "rules.set";
+
+    /**
+     * File manager to keep up to date.
+     */
+    private FileManager fileManager;
+
+    /**
+     * Watch service of the file system.
+     */
+    private WatchService service;
+
+    /**
+     * Watched folders by their key.
+     */
+    private ConcurrentHashMap<WatchKey, Path> folders = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * @param fileManager File manager to keep up to date.
+     * @throws IOException the file system can't be watched.
+     */
+    public FileWatcher(FileManager fileManager) throws IOException {
+        this.fileManager = fileManager;
+        service = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watch a folder for changes of its files and folders.
+     * Registering a folder that is already watched has no effect.
+     * @param folder Folder to watch.
+     */
+    void register(File folder) {
+        Path path = folder.toPath().toAbsolutePath().normalize();
+        try {
+            folders.put(path.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), path);
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    /**
+     * Wait for changes and update the file manager, until the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Map<Path, Set<String>> changes = new HashMap<>();
+                Set<Path> rules = new HashSet<>();
+
+                // Collect the changes, until the folders are quiet.
+                WatchKey key = service.take();
+                while (key != null) {
+                    collect(key, changes, rules);
+                    key = service.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+                }
+
+                update(changes, rules);
+            }
+        } catch (InterruptedException e) {
+            //
+        }
+    }
+
+    /**
+     * Collect the changes of a watched folder.
+     * @param key Key of the watched folder.
+     * @param changes Names of the changed files and folders, by folder.
+     * @param rules Folders of which the rules settings must be read again.
+     */
+    private void collect(WatchKey key, Map<Path, Set<String>> changes, Set<Path> rules) {
+        Path folder = folders.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (folder == null) {
+                continue;
+            }
+
+            // Lost events, so the complete folder must be indexed again.
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rules.add(folder);
+                changes.computeIfAbsent(folder, k -> new HashSet<>());
+                continue;
+            }
+
+            String name = event.context().toString();
+            if (name.equals(RULES_FILE)) {
+                rules.add(folder);
+            }
+            changes.computeIfAbsent(folder, k -> new HashSet<>()).add(name);
+        }
+
+        // A deleted folder can't be watched anymore.
+        if (!key.reset()) {
+            folders.remove(key);
+        }
+    }
+
+    /**
+     * Update the changed folders in the file manager.
+     * Parent folders are updated before their sub folders.
+     * A folder that is indexed again with its sub folders, makes the updates of its sub folders needless.
+     * After the updates the snapshot of the indexed folders is written again.
+     * @param changes Names of the changed files and folders, by folder.
+     * @param rules Folders of which the rules settings must be read again.
+     */
+    private void update(Map<Path, Set<String>> changes, Set<Path> rules) {
+        List<Path> order = new ArrayList<>(changes.keySet());
+        order.sort((a, b) -> a.getNameCount() - b.getNameCount());
+
+        List<Path> done = new ArrayList<>();
+        for (Path folder : order) {
+            boolean covered = false;
+            for (Path parent : done) {
+                if (!parent.equals(folder) && folder.startsWith(parent) && rules.contains(parent)) {
+                    covered = true;
+                    break;
+                }
+            }
+
+            if (!covered) {
+                fileManager.update(folder, changes.get(folder), rules.contains(folder));
+                done.add(folder);
+            }
+        }
+
+        fileManager.saveSnapshot();
+    }
+}
@@ -0,0 +1,261 @@
+package files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of the indexed folders on disk, so the next start doesn't have to scan the folders that are unchanged.
+ *
+ * For each folder the modification times of the folder and of its rules settings file are stored,
+ * with the indexed files and their precompressed sidecar files. The mime types and the rules aren't stored,
+ * they follow from the rules settings files, that are read again.
+ * A folder of which the modification time is unchanged has the same entries, so it is restored without listing it.
+ * Only the files with sidecar files are checked again, because a file altered in place makes its sidecars outdated
+ * without changing the folder.
+ * A folder of which only the modification time is changed is listed again, its sub folders are still validated
+ * against the snapshot. A folder of which the rules settings file is changed is scanned again with all its sub folders.
+ *
+ * The snapshot is a binary file with the following layout, numbers are big endian and names are modified UTF-8:
+ * - header: magic number, version, modification time of the base rules settings file, amount of roots
+ * - root: absolute location of the folder, folder
+ * - folder: modification time, modification time of the rules settings file (-1 if none), time of the scan,
+ *   amount of files, files, amount of sub folders, name and folder of each sub folder
+ * - file: name, length, modification time, amount of sidecars, kind, length and modification time of each sidecar
+ */
+public class IndexSnapshot {
+
+    /**
+     * First bytes of a snapshot file.
+     */
+    static final int MAGIC = 0x48534E50;
+
+    /**
+     * Version of the layout of the snapshot file.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Milliseconds between the modification time of a folder and its scan, before the scan is trusted.
+     * A change in the same tick of the clock of the file system as the scan, wouldn't change the modification time.
+     */
+    private static final long TRUST_MARGIN = 2000;
+
+    /**
+     * Constructor.
+     */
+    private IndexSnapshot() {
+    }
+
+    /**
+     * Read a snapshot file.
+     * @param file Snapshot file.
+     * @param rulesModified Modification time of the base rules settings file, the snapshot is only valid if it is unchanged.
+     * @return the stored roots by their absolute location, empty if the snapshot doesn't exist or can't be used.
+     */
+    static Map<String, StoredFolder> read(File file, long rulesModified) {
+        if (!file.isFile()) {
+            return Collections.emptyMap();
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != rulesModified) {
+                System.out.println("Index snapshot is outdated, scanning all folders");
+                return Collections.emptyMap();
+            }
+
+            int count = in.readInt();
+            HashMap<String, StoredFolder> roots = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String location = in.readUTF();
+                roots.put(location, new StoredFolder(in));
+            }
+            return roots;
+        } catch (IOException e) {
+            System.out.println("Index snapshot can't be read, scanning all folders");
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Open a temporary file to write a snapshot, the header is written.
+     * @param file Snapshot file.
+     * @param rulesModified Modification time of the base rules settings file.
+     * @param roots Amount of roots that will be written.
+     * @return stream to write the roots to.
+     * @throws IOException Exception.
+     */
+    static DataOutputStream create(File file, long rulesModified, int roots) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary(file))));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(rulesModified);
+        out.writeInt(roots);
+        return out;
+    }
+
+    /**
+     * Replace the snapshot file by the written temporary file at once, so a reader never sees a half written snapshot.
+     * @param file Snapshot file.
+     * @throws IOException Exception.
+     */
+    static void commit(File file) throws IOException {
+        Files.move(temporary(file).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Get the temporary file of a snapshot file.
+     * @param file Snapshot file.
+     * @return the temporary file.
+     */
+    private static File temporary(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Get the modification time of a file.
+     * @param file File.
+     * @return the modification time in milliseconds, or -1 if the file doesn't exist or isn't a regular file.
+     */
+    static long modified(File file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attributes.isRegularFile() ? attributes.lastModifiedTime().toMillis() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Folder as stored in the snapshot.
+     */
+    static class StoredFolder {
+
+        /**
+         * Modification time of the folder.
+         */
+        final long modified;
+
+        /**
+         * Modification time of the rules settings file of the folder, or -1 if the folder has none.
+         */
+        final long rulesModified;
+
+        /**
+         * Time of the scan of the folder.
+         */
+        final long scanned;
+
+        /**
+         * Indexed files of the folder.
+         */
+        final StoredFile[] files;
+
+        /**
+         * Indexed sub folders of the folder.
+         */
+        final Map<String, StoredFolder> folders;
+
+        /**
+         * Constructor, reads the folder from the snapshot.
+         * @param in Snapshot stream.
+         * @throws IOException Exception.
+         */
+        StoredFolder(DataInputStream in) throws IOException {
+            modified = in.readLong();
+            rulesModified = in.readLong();
+            scanned = in.readLong();
+
+            files = new StoredFile[in.readInt()];
+            for (int i = 0; i < files.length; i++) {
+                files[i] = new StoredFile(in, in.readUTF(), -1);
+            }
+
+            int count = in.readInt();
+            folders = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                folders.put(name, new StoredFolder(in));
+            }
+        }
+
+        /**
+         * Checking of the rules settings file of the folder is unchanged.
+         * @param rulesModified Current modification time of the rules settings file, or -1 if the folder has none.
+         * @return the rules settings are unchanged, so the stored sub folders can be used.
+         */
+        boolean hasRules(long rulesModified) {
+            return this.rulesModified == rulesModified && rulesModified < scanned - TRUST_MARGIN;
+        }
+
+        /**
+         * Checking of the entries of the folder are unchanged.
+         * @param modified Current modification time of the folder.
+         * @return the entries are unchanged, so the stored files can be used.
+         */
+        boolean hasEntries(long modified) {
+            return this.modified == modified && modified < scanned - TRUST_MARGIN;
+        }
+    }
+
+    /**
+     * File or precompressed sidecar file as stored in the snapshot.
+     */
+    static class StoredFile {
+
+        /**
+         * Name of the file, null for a sidecar.
+         */
+        final String name;
+
+        /**
+         * Kind of sidecar, -1 for a file.
+         */
+        final int sidecar;
+
+        /**
+         * Length of the file.
+         */
+        final long length;
+
+        /**
+         * Modification time of the file.
+         */
+        final long modified;
+
+        /**
+         * Sidecar files of the file.
+         */
+        final StoredFile[] variants;
+
+        /**
+         * Constructor, reads the file from the snapshot.
+         * @param in Snapshot stream.
+         * @param name Name of the file, null for a sidecar.
+         * @param sidecar Kind of sidecar, -1 for a file.
+         * @throws IOException Exception.
+         */
+        StoredFile(DataInputStream in, String name, int sidecar) throws IOException {
+            this.name = name;
+            this.sidecar = sidecar;
+            length = in.readLong();
+            modified = in.readLong();
+
+            variants = new StoredFile[sidecar == -1 ? in.readUnsignedByte() : 0];
+            for (int i = 0; i < variants.length; i++) {
+                variants[i] = new StoredFile(in, null, in.readUnsignedByte());
+            }
+        }
+    }
+}
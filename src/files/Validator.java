@@ -0,0 +1,171 @@
+package files;
+
+import network.HeaderBuffer;
+import network.Request;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Validator of a version of a file.
+ * The entity tag is derived from the length and the modification time of the file,
+ * so it can be computed without reading the file.
+ * The header lines are encoded once, when the version of the file is found.
+ */
+public class Validator {
+
+    /**
+     * Format of a HTTP date.
+     */
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    /**
+     * Modification time of the file in milliseconds.
+     */
+    private long lastModified;
+
+    /**
+     * Length of the file.
+     */
+    private long length;
+
+    /**
+     * Entity tag of the file, including the quotes.
+     */
+    private String etag;
+
+    /**
+     * Modification time of the file as HTTP date.
+     */
+    private String date;
+
+    /**
+     * Encoded header lines with the entity tag and the modification time.
+     */
+    private byte[] header;
+
+    /**
+     * Constructor.
+     * @param lastModified Modification time of the file in milliseconds.
+     * @param length Length of the file.
+     * @param coding Content coding of a variant that is compressed on the fly, or null.
+     */
+    Validator(long lastModified, long length, String coding) {
+        this.lastModified = lastModified;
+        this.length = length;
+
+        etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + (coding != null ? "-" + coding : "") + "\"";
+        date = HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+        header = HeaderBuffer.encode("ETag: " + etag + "\r\nLast-Modified: " + date + "\r\n");
+    }
+
+    /**
+     * Checking of the version of the client is still equal to this version.
+     * If-None-Match is preferred over If-Modified-Since, as described in RFC 7232.
+     * @param request Request of the client.
+     * @return the file isn't modified, so the client can use its own version.
+     */
+    public boolean isNotModified(Request request) {
+        String ifNoneMatch = request.getArgument("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matches(ifNoneMatch);
+        }
+
+        String ifModifiedSince = request.getArgument("If-Modified-Since");
+        return ifModifiedSince != null && !isModifiedSince(ifModifiedSince);
+    }
+
+    /**
+     * Checking of the version of the If-Range header is still this version.
+     * An entity tag is compared strongly, a date must be exactly the modification time.
+     * @param ifRange Value of the If-Range header, an entity tag or a HTTP date.
+     * @return the version is equal, so the requested ranges can be responded.
+     */
+    public boolean matchesRange(String ifRange) {
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        return ifRange.equals(date);
+    }
+
+    /**
+     * Checking of one of the given entity tags matches, compared weakly.
+     * @param tags List of entity tags, or "*".
+     * @return one of the entity tags matches.
+     */
+    private boolean matches(String tags) {
+        if (tags.trim().equals("*")) {
+            return true;
+        }
+
+        for (String tag : tags.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checking of the file is modified after the given date.
+     * Mostly the client sends the date it got, so the date is only parsed if it differs.
+     * @param since HTTP date.
+     * @return the file is modified after the date, or the date can't be parsed.
+     */
+    private boolean isModifiedSince(String since) {
+        if (since.equals(date)) {
+            return false;
+        }
+
+        try {
+            long time = ZonedDateTime.parse(since.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+
+            // HTTP dates have a precision of seconds.
+            return lastModified / 1000 > time / 1000;
+        } catch (DateTimeParseException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Get the modification time of the file.
+     * @return the modification time in milliseconds.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Get the length of the file.
+     * @return the length of the file.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Get the entity tag of the file.
+     * @return the entity tag, including the quotes.
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * Get the encoded header lines with the entity tag and the modification time.
+     * @return the encoded header lines.
+     */
+    public byte[] getHeader() {
+        return header;
+    }
+}
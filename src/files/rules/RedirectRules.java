@@ -0,0 +1,381 @@
+package files.rules;
+
+import network.Redirect;
+import network.Url;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Redirects of a host, compiled when the rules settings file is read.
+ *
+ * There are three kinds of redirects:
+ * - Exact: "/old/page.html", the url must be equal.
+ * - Prefix: "/old/*", all urls below the prefix. A "*" at the end of the destination is replaced by the rest of the url.
+ * - Regex: "~^/blog/(\d+)/(.*)$", the url must match the expression. "$1" to "$9" in the destination are replaced by the groups.
+ *
+ * The exact redirects are kept in a hash map. The prefixes are kept in a trie of the characters of the url,
+ * and the expressions in the same trie by their literal beginning. So a url is matched by a single walk through the trie,
+ * and only the expressions of which the beginning matches the url are tried.
+ * The cost of matching doesn't grow with the amount of redirects.
+ *
+ * An exact redirect is preferred, then the first expression that matches in order of the file, then the longest prefix.
+ * The query of the url isn't matched, but it is added to the destination if the destination has no query itself.
+ * The parts of the url that are copied into the destination are percent-encoded again, because the url is decoded.
+ */
+public class RedirectRules {
+
+    /**
+     * Hexadecimal digits of a percent-encoded character.
+     */
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Exact redirects by their url.
+     */
+    private HashMap<String, Redirect> exact = new HashMap<>();
+
+    /**
+     * Root of the trie of the prefixes and expressions.
+     */
+    private Node trie = new Node();
+
+    /**
+     * Amount of expressions, used to keep the order of the file.
+     */
+    private int expressions;
+
+    /**
+     * Add a redirect.
+     * @param code Code of the redirect.
+     * @param source Exact url, prefix ending with "*", or expression starting with "~".
+     * @param destination Destination of the redirect.
+     * @return the redirect could be added, false if the expression is invalid.
+     */
+    public boolean add(int code, String source, String destination) {
+        if (source.startsWith("~")) {
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(source.substring(1));
+            } catch (PatternSyntaxException e) {
+                return false;
+            }
+
+            Node node = insert(literalPrefix(source.substring(1)));
+            node.expressions.add(new Expression(pattern, code, source, destination, expressions++));
+            return true;
+        }
+
+        if (source.endsWith("*")) {
+            Node node = insert(source.substring(0, source.length() - 1));
+            node.prefix = new Redirect(code, source, destination);
+            return true;
+        }
+
+        exact.put(source, new Redirect(code, source, destination));
+        return true;
+    }
+
+    /**
+     * Find the redirect of a url.
+     * @param url Requested url.
+     * @return the redirect with the resolved destination, or null if the url isn't redirected.
+     */
+    public Redirect find(Url url) {
+        if (exact.isEmpty() && trie.isEmpty()) {
+            return null;
+        }
+
+        String location = url.getLocation();
+        Redirect redirect = exact.get(location);
+        if (redirect != null) {
+            return withQuery(redirect, redirect.getDestination(), url);
+        }
+
+        // Walk the trie along the url, remembering the longest prefix and the first expression that matches.
+        Redirect prefix = null;
+        int prefixLength = 0;
+        Expression expression = null;
+        String destination = null;
+
+        Node node = trie;
+        int i = 0;
+        while (node != null) {
+            if (node.prefix != null) {
+                prefix = node.prefix;
+                prefixLength = i;
+            }
+            for (Expression candidate : node.expressions) {
+                if (expression == null || candidate.order < expression.order) {
+                    String resolved = candidate.resolve(location);
+                    if (resolved != null) {
+                        expression = candidate;
+                        destination = resolved;
+                    }
+                }
+            }
+
+            node = i < location.length() ? node.child(location.charAt(i)) : null;
+            i++;
+        }
+
+        if (expression != null) {
+            return withQuery(expression.redirect, destination, url);
+        }
+        if (prefix != null) {
+            String target = prefix.getDestination();
+            if (target.endsWith("*")) {
+                target = target.substring(0, target.length() - 1) + encode(location.substring(prefixLength));
+            }
+            return withQuery(prefix, target, url);
+        }
+        return null;
+    }
+
+    /**
+     * Create the redirect to a resolved destination, with the query of the url.
+     * @param redirect Matched redirect.
+     * @param destination Resolved destination.
+     * @param url Requested url.
+     * @return the redirect to the destination.
+     */
+    private static Redirect withQuery(Redirect redirect, String destination, Url url) {
+        String query = url.getQuery();
+        if (query != null && destination.indexOf('?') == -1) {
+            destination = destination + "?" + query;
+        }
+        return destination.equals(redirect.getDestination()) ? redirect :
+                new Redirect(redirect.getCode(), redirect.getSource(), destination);
+    }
+
+    /**
+     * Percent-encode a decoded part of a url, so it can be copied into a destination.
+     * Only the characters that are allowed in a path are kept, the others are encoded as UTF-8.
+     * @param part Decoded part of a url.
+     * @return the encoded part.
+     */
+    private static String encode(String part) {
+        StringBuilder encoded = null;
+        byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            boolean allowed = b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9'
+                    || "-._~!$&'()*+,;=:@/".indexOf(b) != -1;
+            if (encoded == null) {
+                if (allowed) {
+                    continue;
+                }
+                encoded = new StringBuilder(part.length() + 16);
+                encoded.append(part, 0, i);
+            }
+
+            if (allowed) {
+                encoded.append((char) b);
+            } else {
+                encoded.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+            }
+        }
+        return encoded != null ? encoded.toString() : part;
+    }
+
+    /**
+     * Insert a key into the trie.
+     * @param key Key to insert.
+     * @return the node of the key.
+     */
+    private Node insert(String key) {
+        Node node = trie;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.getOrAdd(key.charAt(i));
+        }
+        return node;
+    }
+
+    /**
+     * Get the literal beginning of an expression, that every matching url must start with.
+     * @param regex Expression.
+     * @return the literal beginning, empty if the expression has none.
+     */
+    private static String literalPrefix(String regex) {
+        if (hasTopLevelAlternation(regex)) {
+            return "";
+        }
+
+        int start = regex.startsWith("^") ? 1 : 0;
+        StringBuilder prefix = new StringBuilder();
+        for (int i = start; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if ("\\[](){}.*+?^$|".indexOf(c) != -1) {
+
+                // A quantifier also applies to the character before it.
+                if ((c == '*' || c == '+' || c == '?' || c == '{') && prefix.length() > 0) {
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            }
+            prefix.append(c);
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Checking of an expression has alternatives outside of groups, like "/a/.*|/b/.*".
+     * Then the alternatives have no common literal beginning.
+     * @param regex Expression.
+     * @return the expression has alternatives outside of groups.
+     */
+    private static boolean hasTopLevelAlternation(String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Node of the trie.
+     */
+    private static class Node {
+
+        /**
+         * Characters of the children, in the same order as the children.
+         */
+        private char[] labels = new char[0];
+
+        /**
+         * Children of the node.
+         */
+        private Node[] children = new Node[0];
+
+        /**
+         * Prefix redirect that ends at this node, or null.
+         */
+        private Redirect prefix;
+
+        /**
+         * Expressions of which the literal beginning ends at this node.
+         */
+        private List<Expression> expressions = new ArrayList<>(0);
+
+        /**
+         * Get the child of a character.
+         * @param c Character.
+         * @return the child, or null if the character has no child.
+         */
+        Node child(char c) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Get the child of a character, the child is added if it doesn't exist.
+         * @param c Character.
+         * @return the child.
+         */
+        Node getOrAdd(char c) {
+            Node child = child(c);
+            if (child == null) {
+                child = new Node();
+                labels = Arrays.copyOf(labels, labels.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                labels[labels.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+
+        /**
+         * Checking of the trie is empty.
+         * @return the node has no children, prefix or expressions.
+         */
+        boolean isEmpty() {
+            return labels.length == 0 && prefix == null && expressions.isEmpty();
+        }
+    }
+
+    /**
+     * Redirect of the urls that match an expression.
+     */
+    private static class Expression {
+
+        /**
+         * Compiled expression.
+         */
+        private Pattern pattern;
+
+        /**
+         * Redirect with the destination, that can refer to the groups of the expression.
+         */
+        private Redirect redirect;
+
+        /**
+         * Order of the expression in the file.
+         */
+        private int order;
+
+        /**
+         * Constructor.
+         * @param pattern Compiled expression.
+         * @param code Code of the redirect.
+         * @param source Source of the redirect.
+         * @param destination Destination, that can refer to the groups of the expression.
+         * @param order Order of the expression in the file.
+         */
+        Expression(Pattern pattern, int code, String source, String destination, int order) {
+            this.pattern = pattern;
+            this.redirect = new Redirect(code, source, destination);
+            this.order = order;
+        }
+
+        /**
+         * Resolve the destination of a url.
+         * @param location Url without query.
+         * @return the destination with the groups of the url, or null if the url doesn't match.
+         */
+        String resolve(String location) {
+            Matcher matcher = pattern.matcher(location);
+            if (!matcher.matches()) {
+                return null;
+            }
+
+            String destination = redirect.getDestination();
+            StringBuilder resolved = new StringBuilder();
+            for (int i = 0; i < destination.length(); i++) {
+                char c = destination.charAt(i);
+                if (c == '$' && i + 1 < destination.length() && Character.isDigit(destination.charAt(i + 1))) {
+                    int group = destination.charAt(++i) - '0';
+                    if (group <= matcher.groupCount() && matcher.group(group) != null) {
+                        resolved.append(encode(matcher.group(group)));
+                    }
+                } else {
+                    resolved.append(c);
+                }
+            }
+            return resolved.toString();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.util.HashSet;
  * - Which files, folders, extensions would be indexed
  * - Which mime types are supported
  * - Which extension will be used for the index file
+ * - Which files are compressed on the fly, and from which size on
  * - Redirects (if the ruleSet is a root rules settings file)
  * - Authorization (if the ruleSet is a root rules settings file)
  */
@@ -62,10 +63,23 @@ public class RuleSet {
      */
     private String index;
 
+    /**
+     * Extensions of the files that are compressed on the fly.
+     * All text mime types are compressed, unless denied.
+     * Has influence on sub folders.
+     */
+    private HashSet<String> compressedExtensions;
+
+    /**
+     * Minimum size in bytes of a file to compress on the fly, -1 if files aren't compressed.
+     * Has influence on sub folders.
+     */
+    private long compressMinSize = 1024;
+
     /**
      * Redirects for this host
      */
-    private HashMap<String, Redirect> redirects;
+    private RedirectRules redirects;
 
     /**
      * Basic authorization for this host.
@@ -87,6 +101,7 @@ public class RuleSet {
 
         mimeTypes = new HashMap<>();
         deniedExtensions = new HashSet<>();
+        compressedExtensions = new HashSet<>();
         init();
     }
 
@@ -102,6 +117,8 @@ public class RuleSet {
 
         mimeTypes = new HashMap<>(prev.mimeTypes);
         deniedExtensions = new HashSet<>(prev.deniedExtensions);
+        compressedExtensions = new HashSet<>(prev.compressedExtensions);
+        compressMinSize = prev.compressMinSize;
         index = prev.index;
         init();
     }
@@ -112,7 +129,7 @@ public class RuleSet {
     private void init() {
         deniedFiles = new HashSet<>();
         deniedFolders = new HashSet<>();
-        redirects = new HashMap<>();
+        redirects = new RedirectRules();
 
         try {
             ConfigReader reader = new ConfigReader(file, new RuleConfigReader());
@@ -130,8 +147,9 @@ public class RuleSet {
      * @return the altered header.
      */
     public AltHeader AltHeader(Request request) {
-        if (redirects.containsKey(request.getUrl().getPlain())) {
-            return new AltHeaderRedirect(redirects.get(request.getUrl().getPlain()));
+        Redirect redirect = redirects.find(request.getUrl());
+        if (redirect != null) {
+            return new AltHeaderRedirect(redirect);
         }
 
         if (auth != null) {
@@ -150,7 +168,17 @@ public class RuleSet {
      * @return file/folder must be indexed or not.
      */
     public boolean index(File file) {
-        return file.isFile() ? !deniedFiles.contains(file.getName()) : !deniedFolders.contains(file.getName());
+        return index(file.getName(), file.isFile());
+    }
+
+    /**
+     * Ask of the given file/folder must be indexed, without asking the file system of it is a file.
+     * @param name Name of the file/folder to index.
+     * @param file Is it a file, otherwise a folder.
+     * @return file/folder must be indexed or not.
+     */
+    public boolean index(String name, boolean file) {
+        return file ? !deniedFiles.contains(name) : !deniedFolders.contains(name);
     }
 
     /**
@@ -187,8 +215,17 @@ public class RuleSet {
      * @return the given file the generic index file.
      */
     public boolean isGenericFile(File file) {
+        return isGenericFile(file.getName());
+    }
+
+    /**
+     * Is the file with the given name the generic index file.
+     * @param name Name of the file to check.
+     * @return the given file the generic index file.
+     */
+    public boolean isGenericFile(String name) {
         String index = "index." + this.index;
-        return index.equals(file.getName());
+        return index.equals(name);
     }
 
     /**
@@ -199,6 +236,15 @@ public class RuleSet {
         return index;
     }
 
+    /**
+     * Get the minimum size of a file with the given extension to compress on the fly.
+     * @param ext Extension.
+     * @return the minimum size in bytes, or -1 if files with the extension aren't compressed.
+     */
+    public long getCompressMinSize(String ext) {
+        return compressMinSize >= 0 && compressedExtensions.contains(ext) ? compressMinSize : -1;
+    }
+
     /**
      * Reader listener to parse config file.
      */
@@ -223,6 +269,8 @@ public class RuleSet {
                     return args >= 3;
                 case "index":
                     return args == 2;
+                case "compress":
+                    return args == 2;
             }
             return false;
         }
@@ -245,6 +293,8 @@ public class RuleSet {
                     return parseDeny(args);
                 case "index":
                     return parseIndex(args);
+                case "compress":
+                    return parseCompress(args);
             }
             return false;
         }
@@ -258,8 +308,11 @@ public class RuleSet {
             if (!root)
                 return true;
 
-            redirects.put(args[2], new Redirect(Integer.parseInt(args[1]), args[2], args[3]));
-            return true;
+            try {
+                return redirects.add(Integer.parseInt(args[1]), args[2], args[3]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
         }
 
         /**
@@ -298,6 +351,9 @@ public class RuleSet {
                     return false;
 
                 mimeTypes.put(args[2], new Mime(args[2], args[3], binary.equals("1")));
+                if (binary.equals("0")) {
+                    compressedExtensions.add(args[2]);
+                }
                 return true;
             } else if (type.equals("folder")) {
                 deniedFolders.remove(parseName(args, 2));
@@ -308,6 +364,9 @@ public class RuleSet {
             } else if (type.equals("ext")) {
                 deniedExtensions.remove(args[2]);
                 return true;
+            } else if (type.equals("compress")) {
+                compressedExtensions.add(args[2]);
+                return true;
             }
 
             return false;
@@ -323,6 +382,7 @@ public class RuleSet {
             switch (type) {
                 case "type":
                     mimeTypes.remove(args[2]);
+                    compressedExtensions.remove(args[2]);
                     return true;
                 case "folder":
                     deniedFolders.add(parseName(args, 2));
@@ -333,6 +393,9 @@ public class RuleSet {
                 case "ext":
                     deniedExtensions.add(args[2]);
                     return true;
+                case "compress":
+                    compressedExtensions.remove(args[2]);
+                    return true;
             }
 
             return false;
@@ -361,5 +424,25 @@ public class RuleSet {
             index = args[1];
             return true;
         }
+
+        /**
+         * Parse the compress property.
+         * The argument is the minimum size in bytes of a file to compress, or "off".
+         * @param args Arguments.
+         * @return could be parsed.
+         */
+        private boolean parseCompress(String[] args) {
+            if (args[1].equals("off")) {
+                compressMinSize = -1;
+                return true;
+            }
+
+            try {
+                compressMinSize = Long.parseLong(args[1]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            return true;
+        }
     }
 }
@@ -1,6 +1,6 @@
 package files.rules.result;
 
-import java.io.PrintWriter;
+import network.HeaderBuffer;
 
 /**
  * Created altered header object
@@ -28,13 +28,13 @@ public abstract class AltHeader {
     public abstract int getHttpCode();
 
     /**
-     * Write the properties into the writer.
-     * The writer is mostly coming from the {@link network.Response#writeHeader(PrintWriter, AltHeader)} method.
-     * @param writer Writer.
+     * Write the properties into the buffer.
+     * The buffer is mostly coming from the {@link network.Response#writeHeader(HeaderBuffer)} method.
+     * @param buffer Header buffer.
      */
-    public void getHeader(PrintWriter writer) {
+    public void getHeader(HeaderBuffer buffer) {
         for (HttpHeaderProperty property : properties) {
-            writer.print(property);
+            buffer.write(property.getEncoded());
         }
     }
 }
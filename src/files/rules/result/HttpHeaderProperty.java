@@ -1,5 +1,7 @@
 package files.rules.result;
 
+import network.HeaderBuffer;
+
 /**
  * Http header property used for {@link AltHeader} objects.
  */
@@ -15,18 +17,53 @@ public class HttpHeaderProperty {
      */
     private String value;
 
+    /**
+     * Encoded header line of the property.
+     */
+    private byte[] encoded;
+
     /**
      * Constructor.
+     * Control characters are removed from the key and value, so the property can't split the header line.
      * @param key Key of the Http header property.
      * @param value Value of the Http header property.
      */
     public HttpHeaderProperty(String key, String value) {
-        this.key = key;
-        this.value = value;
+        this.key = removeControls(key);
+        this.value = removeControls(value);
+        encoded = HeaderBuffer.encode(toString());
+    }
+
+    /**
+     * Remove the control characters from a text.
+     * @param text Text.
+     * @return the text without control characters.
+     */
+    private static String removeControls(String text) {
+        StringBuilder cleaned = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean control = c < ' ' || c == 0x7F;
+            if (control && cleaned == null) {
+                cleaned = new StringBuilder(text.length());
+                cleaned.append(text, 0, i);
+            } else if (!control && cleaned != null) {
+                cleaned.append(c);
+            }
+        }
+        return cleaned != null ? cleaned.toString() : text;
+    }
+
+    /**
+     * Get the encoded header line of the property.
+     * @return the encoded header line.
+     */
+    public byte[] getEncoded() {
+        return encoded;
     }
 
     @Override
     public String toString() {
-        return String.format("%s: %s\r\n", key, value);
+        return key + ": " + value + "\r\n";
     }
 }
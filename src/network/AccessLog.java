@@ -0,0 +1,568 @@
+package network;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log of the handled requests.
+ *
+ * The workers and event loops never write to the file themselves. An entry is placed in a bounded ring of slots,
+ * from which a single background thread takes the entries. The lines are encoded into a buffer, that is written
+ * to the file when it is full or when no more entries are waiting.
+ * Placing an entry doesn't lock and doesn't wait: a worker claims a slot by increasing the tail of the ring,
+ * and publishes it by setting the sequence of the slot. If the ring is full, because the file can't keep up,
+ * the entry is dropped and counted. The amount of dropped entries is written to the log by the background thread.
+ *
+ * Each line has the fields: time, host, verb, url, status, bytes of the body and latency in milliseconds,
+ * separated by spaces. Spaces and control characters in the fields are percent-encoded, so a line can be split on spaces.
+ * A missing field is written as "-".
+ *
+ * The file is rotated when it reaches the maximum size or age: it is renamed with the time of the rotation
+ * appended to its name, and a new file is started.
+ */
+public class AccessLog implements Runnable {
+
+    /**
+     * Amount of slots of the ring, a power of two.
+     */
+    private static final int CAPACITY = 8192;
+
+    /**
+     * Size of the buffer of the lines that are written at once.
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Maximum bytes of a line besides its text fields.
+     */
+    private static final int LINE_SIZE = 96;
+
+    /**
+     * Nanoseconds the background thread waits when the ring is empty.
+     */
+    private static final long IDLE_WAIT = 10000000;
+
+    /**
+     * Milliseconds the shutdown of the server waits for the waiting entries to be written.
+     */
+    private static final long SHUTDOWN_WAIT = 5000;
+
+    /**
+     * Log file.
+     */
+    private File file;
+
+    /**
+     * Size in bytes at which the file is rotated, 0 to never rotate on size.
+     */
+    private long maxSize;
+
+    /**
+     * Age in milliseconds at which the file is rotated, 0 to never rotate on age.
+     */
+    private long maxAge;
+
+    /**
+     * Slots of the ring, reused for all entries.
+     */
+    private final Entry[] entries = new Entry[CAPACITY];
+
+    /**
+     * Sequence of each slot. A slot can be claimed at position p if its sequence is p,
+     * and read at position p if its sequence is p + 1.
+     */
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+
+    /**
+     * Position of the next slot to claim.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Position of the next slot to read, only used by the background thread.
+     */
+    private long head;
+
+    /**
+     * Amount of entries dropped since the last report.
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Stream of the current file.
+     */
+    private OutputStream out;
+
+    /**
+     * Size of the current file, including the lines in the buffer.
+     */
+    private long size;
+
+    /**
+     * Time the current file is started.
+     */
+    private long opened;
+
+    /**
+     * Encoded lines that aren't written yet.
+     */
+    private byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Amount of bytes in the buffer.
+     */
+    private int filled;
+
+    /**
+     * Format of the time of a line, without milliseconds.
+     */
+    private SimpleDateFormat timeFormat = createFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+    /**
+     * Second of the formatted time.
+     */
+    private long second = -1;
+
+    /**
+     * Formatted time of {@link AccessLog#second}.
+     */
+    private byte[] formattedSecond;
+
+    /**
+     * Constructor.
+     * @param file Log file.
+     * @param maxSize Size in bytes at which the file is rotated, 0 to never rotate on size.
+     * @param maxAge Age in minutes at which the file is rotated, 0 to never rotate on age.
+     */
+    public AccessLog(File file, long maxSize, long maxAge) {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge * 60000;
+
+        for (int i = 0; i < CAPACITY; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Start the background thread that writes the log.
+     * When the server shuts down, the thread is stopped after it has written the waiting entries.
+     */
+    public void start() {
+        Thread thread = new Thread(this, "access-log");
+        thread.setDaemon(true);
+        thread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            thread.interrupt();
+            try {
+                thread.join(SHUTDOWN_WAIT);
+            } catch (InterruptedException e) {
+                //
+            }
+        }, "access-log-shutdown"));
+    }
+
+    /**
+     * Log a handled request.
+     * Never blocks, if the ring is full the entry is dropped.
+     * @param request Request, possibly not completely parsed, or null if the connection is rejected.
+     * @param status Responded status.
+     * @param bytes Bytes of the responded body.
+     * @param started Time in nanoseconds the handling of the request started.
+     */
+    public void log(Request request, int status, long bytes, long started) {
+        long latency = System.nanoTime() - started;
+
+        // The strings are created now, because the url is a view on the buffer of the connection.
+        Url url = request != null ? request.getUrl() : null;
+        String location = url != null ? url.getPlain() : null;
+
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) position & (CAPACITY - 1);
+            long sequence = sequences.get(index);
+            if (sequence < position) {
+
+                // The slot isn't read yet, the ring is full.
+                dropped.increment();
+                return;
+            }
+            if (sequence == position && tail.compareAndSet(position, position + 1)) {
+                break;
+            }
+        }
+
+        Entry entry = entries[index];
+        entry.time = System.currentTimeMillis();
+        entry.host = request != null ? request.getReceivedHost() : null;
+        entry.verb = request != null ? request.getVerb() : null;
+        entry.url = location;
+        entry.status = status;
+        entry.bytes = bytes;
+        entry.latency = latency;
+        sequences.lazySet(index, position + 1);
+    }
+
+    /**
+     * Write the logged entries, until the thread is interrupted.
+     * The entries that are waiting then are still written.
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (drain() == 0) {
+                    flush();
+                    LockSupport.parkNanos(IDLE_WAIT);
+                }
+            } catch (IOException e) {
+
+                // The file can't be written, skip the waiting entries and try a new file later.
+                System.err.println("Access log can't be written: " + e.getMessage());
+                close();
+                skip();
+                LockSupport.parkNanos(IDLE_WAIT * 100);
+            }
+        }
+
+        try {
+            while (drain() > 0) {
+                flush();
+            }
+            flush();
+        } catch (IOException e) {
+            //
+        }
+        close();
+    }
+
+    /**
+     * Write the entries that are waiting in the ring, at most a complete ring at once.
+     * @return the amount of written entries.
+     * @throws IOException Exception.
+     */
+    private int drain() throws IOException {
+        int count = 0;
+        while (count < CAPACITY) {
+            int index = (int) head & (CAPACITY - 1);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+
+            Entry entry = entries[index];
+            if (count == 0) {
+                prepare(entry.time);
+                report();
+            }
+            write(entry);
+            entry.clear();
+
+            sequences.lazySet(index, head + CAPACITY);
+            head++;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Skip the entries that are waiting in the ring, they are counted as dropped.
+     */
+    private void skip() {
+        while (true) {
+            int index = (int) head & (CAPACITY - 1);
+            if (sequences.get(index) != head + 1) {
+                return;
+            }
+
+            entries[index].clear();
+            sequences.lazySet(index, head + CAPACITY);
+            head++;
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Open the file if it isn't opened, or rotate it if it is too large or too old.
+     * @param now Current time.
+     * @throws IOException Exception.
+     */
+    private void prepare(long now) throws IOException {
+        if (out != null && (maxSize > 0 && size >= maxSize || maxAge > 0 && now - opened >= maxAge)) {
+            flush();
+            close();
+
+            String name = file.getPath() + "." + createFormat("yyyyMMdd-HHmmss").format(new Date(now));
+            File rotated = new File(name);
+            for (int i = 1; rotated.exists(); i++) {
+                rotated = new File(name + "-" + i);
+            }
+            if (!file.renameTo(rotated)) {
+                System.err.println("Access log can't be rotated to " + rotated);
+            }
+        }
+
+        if (out == null) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+
+            out = new FileOutputStream(file, true);
+            size = file.length();
+            opened = now;
+        }
+    }
+
+    /**
+     * Write the amount of dropped entries, if entries are dropped since the last report.
+     * @throws IOException Exception.
+     */
+    private void report() throws IOException {
+        long count = dropped.sumThenReset();
+        if (count > 0) {
+            reserve(LINE_SIZE);
+            appendText("# dropped ");
+            appendNumber(count, 1);
+            appendText(" entries\n");
+        }
+    }
+
+    /**
+     * Encode an entry as a line into the buffer.
+     * @param entry Entry to write.
+     * @throws IOException Exception.
+     */
+    private void write(Entry entry) throws IOException {
+
+        // A character takes at most three bytes, encoded as UTF-8 or percent-encoded.
+        reserve(LINE_SIZE + 3 * (length(entry.host) + length(entry.verb) + length(entry.url)));
+
+        int start = filled;
+        appendTime(entry.time);
+        buffer[filled++] = ' ';
+        appendField(entry.host);
+        buffer[filled++] = ' ';
+        appendField(entry.verb);
+        buffer[filled++] = ' ';
+        appendField(entry.url);
+        buffer[filled++] = ' ';
+        appendNumber(entry.status, 1);
+        buffer[filled++] = ' ';
+        appendNumber(entry.bytes, 1);
+
+        // Latency in milliseconds with three decimals.
+        long micros = entry.latency / 1000;
+        buffer[filled++] = ' ';
+        appendNumber(micros / 1000, 1);
+        buffer[filled++] = '.';
+        appendNumber(micros % 1000, 3);
+        buffer[filled++] = '\n';
+
+        size += filled - start;
+    }
+
+    /**
+     * Make room in the buffer for a line, the buffer is written to the file if the line doesn't fit.
+     * @param length Maximum length of the line.
+     * @throws IOException Exception.
+     */
+    private void reserve(int length) throws IOException {
+        if (filled + length > buffer.length) {
+            flush();
+            if (length > buffer.length) {
+                buffer = new byte[length];
+            }
+        }
+    }
+
+    /**
+     * Write the buffer to the file.
+     * @throws IOException Exception.
+     */
+    private void flush() throws IOException {
+        if (filled > 0 && out != null) {
+            out.write(buffer, 0, filled);
+        }
+        filled = 0;
+    }
+
+    /**
+     * Get the length of a field.
+     * @param value Value of the field, or null if it is missing.
+     * @return the length of the field.
+     */
+    private static int length(String value) {
+        return value != null ? value.length() : 1;
+    }
+
+    /**
+     * Append the time of an entry in UTC, the formatted second is reused for all entries in the same second.
+     * @param time Time in milliseconds.
+     */
+    private void appendTime(long time) {
+        if (time / 1000 != second) {
+            second = time / 1000;
+            formattedSecond = timeFormat.format(new Date(second * 1000)).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        System.arraycopy(formattedSecond, 0, buffer, filled, formattedSecond.length);
+        filled += formattedSecond.length;
+        buffer[filled++] = '.';
+        appendNumber(time % 1000, 3);
+        buffer[filled++] = 'Z';
+    }
+
+    /**
+     * Append a number.
+     * @param value Number, not negative.
+     * @param digits Minimum amount of digits, the number is padded with zeros.
+     */
+    private void appendNumber(long value, int digits) {
+        int length = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            length++;
+        }
+        length = Math.max(length, digits);
+
+        for (int i = filled + length - 1; i >= filled; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        filled += length;
+    }
+
+    /**
+     * Append a text of ASCII characters.
+     * @param text Text.
+     */
+    private void appendText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer[filled++] = (byte) text.charAt(i);
+        }
+    }
+
+    /**
+     * Append a field encoded as UTF-8, spaces, control characters and percent signs are percent-encoded.
+     * @param value Value of the field, or null if it is missing.
+     */
+    private void appendField(String value) {
+        if (value == null || value.isEmpty()) {
+            buffer[filled++] = '-';
+            return;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c <= ' ' || c == '%' || c == 0x7F) {
+                buffer[filled++] = '%';
+                buffer[filled++] = (byte) Character.forDigit(c >> 4 & 0xF, 16);
+                buffer[filled++] = (byte) Character.forDigit(c & 0xF, 16);
+            } else if (c < 0x80) {
+                buffer[filled++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[filled++] = (byte) (0xC0 | c >> 6);
+                buffer[filled++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, value.charAt(++i));
+                buffer[filled++] = (byte) (0xF0 | code >> 18);
+                buffer[filled++] = (byte) (0x80 | code >> 12 & 0x3F);
+                buffer[filled++] = (byte) (0x80 | code >> 6 & 0x3F);
+                buffer[filled++] = (byte) (0x80 | code & 0x3F);
+            } else {
+                buffer[filled++] = (byte) (0xE0 | c >> 12);
+                buffer[filled++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[filled++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    /**
+     * Close the current file, the lines in the buffer are discarded.
+     */
+    private void close() {
+        filled = 0;
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                //
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Create a format of a time in UTC.
+     * @param pattern Pattern of the format.
+     * @return the format.
+     */
+    private static SimpleDateFormat createFormat(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    /**
+     * Slot of the ring.
+     */
+    private static class Entry {
+
+        /**
+         * Time in milliseconds the request is handled.
+         */
+        private long time;
+
+        /**
+         * Requested host, as received.
+         */
+        private String host;
+
+        /**
+         * Requested verb.
+         */
+        private String verb;
+
+        /**
+         * Requested url with query.
+         */
+        private String url;
+
+        /**
+         * Responded status.
+         */
+        private int status;
+
+        /**
+         * Bytes of the responded body.
+         */
+        private long bytes;
+
+        /**
+         * Nanoseconds between the start of the handling and the end of the response.
+         */
+        private long latency;
+
+        /**
+         * Release the strings of the entry.
+         */
+        void clear() {
+            host = null;
+            verb = null;
+            url = null;
+        }
+    }
+}
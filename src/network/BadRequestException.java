@@ -0,0 +1,38 @@
+package network;
+
+import java.io.IOException;
+
+/**
+ * The received request can't be handled, because it is malformed or too large.
+ * The client will get a response with the status of the exception, after that the connection will be closed.
+ */
+public class BadRequestException extends IOException {
+
+    /**
+     * Version of the serialized form.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Status of the response.
+     */
+    private int status;
+
+    /**
+     * Constructor.
+     * @param status Status of the response.
+     * @param message Reason of the exception.
+     */
+    public BadRequestException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * Get the status of the response.
+     * @return the status of the response.
+     */
+    public int getStatus() {
+        return status;
+    }
+}
@@ -4,18 +4,70 @@ import files.rules.result.AltHeaderAuth;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Handle basic authorization.
+ *
+ * The passwords of the credentials table are hashed by {@link PasswordHash}, which is slow on purpose.
+ * So the authorization headers that are verified are remembered for {@link BasicAuth#CACHE_TTL} milliseconds,
+ * a client that sends the same header again is authorised by a single lookup.
+ * A wrong header is remembered for {@link BasicAuth#FAILURE_TTL} milliseconds, so a client that repeats it
+ * isn't hashed on every request. The headers are remembered by their SHA-256 digest, not the credentials.
+ * The credentials table is read again when the file is changed, which forgets all verified headers.
  */
 public class BasicAuth {
 
+    /**
+     * Milliseconds a verified authorization header is remembered.
+     */
+    private static final long CACHE_TTL = 300000;
+
+    /**
+     * Milliseconds a wrong authorization header is remembered.
+     */
+    private static final long FAILURE_TTL = 10000;
+
+    /**
+     * Maximum amount of verified authorization headers that are remembered.
+     */
+    private static final int CACHE_SIZE = 1024;
+
+    /**
+     * Milliseconds between checks of the credentials table file for changes.
+     */
+    private static final long CHECK_INTERVAL = 1000;
+
+    /**
+     * File with credentials table.
+     */
+    private File file;
+
     /**
      * Credentials table (username/password)
      */
-    private HashMap<String, String> users = new HashMap<>();
+    private volatile HashMap<String, String> users;
+
+    /**
+     * Modification time of the file at the time it was read.
+     */
+    private volatile long modified;
+
+    /**
+     * Time of the last check of the file for changes.
+     */
+    private volatile long checked;
+
+    /**
+     * Verified authorization headers, by the digest of the header.
+     */
+    private ConcurrentHashMap<String, Verified> verified = new ConcurrentHashMap<>();
 
     /**
      * Constructor.
@@ -23,21 +75,36 @@ public class BasicAuth {
      * @throws Exception Exception
      */
     public BasicAuth(File file) throws Exception {
-        users = new HashMap<>();
+        this.file = file;
+        modified = file.lastModified();
+        checked = System.currentTimeMillis();
+        users = read(file);
+    }
+
+    /**
+     * Read the credentials table file.
+     * @param file File with credentials table (username/password).
+     * @return the credentials table.
+     * @throws Exception Exception
+     */
+    private static HashMap<String, String> read(File file) throws Exception {
+        HashMap<String, String> users = new HashMap<>();
 
         InputStream stream = new FileInputStream(file);
         InputStreamReader streamReader = new InputStreamReader(stream, Charset.forName("UTF-8"));
-        BufferedReader reader = new BufferedReader(streamReader);
+        try (BufferedReader reader = new BufferedReader(streamReader)) {
 
-        // parse the credentials table file
-        String line;
-        while ((line = reader.readLine()) != null) {
-            String[] pair = line.split(" ");
-            if (pair.length != 2)
-                throw new Exception();
+            // parse the credentials table file
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] pair = line.split(" ");
+                if (pair.length != 2)
+                    throw new Exception();
 
-            users.put(pair[0], pair[1]);
+                users.put(pair[0], pair[1]);
+            }
         }
+        return users;
     }
 
     /**
@@ -51,32 +118,164 @@ public class BasicAuth {
     public AltHeaderAuth probe(Request request) {
         String value = request.getArgument("Authorization");
         if (value != null) {
-            String[] parts = value.split(" ");
-
-            // parse the authorization header and lookup against the credentials table.
-            if (parts.length == 2 && parts[0].equals("Basic")) {
-                byte[] keyPair = Base64.getDecoder().decode(parts[1]);
-
-                int index = 0;
-                for (int i = 0; i < keyPair.length; i++) {
-                    if (keyPair[i] == ':') {
-                        index = i;
-                        break;
-                    }
+            long now = System.currentTimeMillis();
+            refresh(now);
+
+            // A header that is verified against the current credentials table, is answered without hashing.
+            HashMap<String, String> users = this.users;
+            String key = digest(value);
+            Verified entry = verified.get(key);
+            if (entry != null && entry.users == users && entry.expires > now) {
+                return entry.authorised ? null : new AltHeaderAuth(request);
+            }
+
+            boolean authorised = verify(value, users);
+            remember(key, new Verified(users, authorised, now + (authorised ? CACHE_TTL : FAILURE_TTL)), now);
+            if (authorised) {
+                return null;
+            }
+        }
+
+        return new AltHeaderAuth(request);
+    }
+
+    /**
+     * Verify an authorization header against the credentials table.
+     * @param value Value of the authorization header.
+     * @param users Credentials table.
+     * @return the username and password are correct.
+     */
+    private static boolean verify(String value, HashMap<String, String> users) {
+        String[] parts = value.split(" ");
+
+        // parse the authorization header and lookup against the credentials table.
+        if (parts.length == 2 && parts[0].equals("Basic")) {
+            byte[] keyPair;
+            try {
+                keyPair = Base64.getDecoder().decode(parts[1]);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+
+            int index = 0;
+            for (int i = 0; i < keyPair.length; i++) {
+                if (keyPair[i] == ':') {
+                    index = i;
+                    break;
                 }
+            }
 
-                if (index != 0) {
-                    String username = new String(keyPair, 0, index);
-                    String password = new String(keyPair, index + 1, keyPair.length - index - 1);
+            if (index != 0) {
+                String username = new String(keyPair, 0, index, StandardCharsets.UTF_8);
+                String password = new String(keyPair, index + 1, keyPair.length - index - 1, StandardCharsets.UTF_8);
 
-                    String u = users.get(username);
-                    if (u != null && u.equals(password)) {
-                        return null;
-                    }
+                // An unknown user is verified against a dummy password, so it takes as long as a known user.
+                String u = users.get(username);
+                if (u == null) {
+                    PasswordHash.verifyUnknown(password);
+                    return false;
                 }
+                return PasswordHash.verify(password, u);
             }
         }
+        return false;
+    }
 
-        return new AltHeaderAuth(request);
+    /**
+     * Get the digest of an authorization header, so the credentials aren't kept in memory.
+     * @param value Value of the authorization header.
+     * @return the SHA-256 digest of the header in Base64.
+     */
+    private static String digest(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+
+            // Every Java runtime supports this algorithm.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Remember a verified authorization header.
+     * If the cache is full, the expired headers are removed, then the wrong headers.
+     * If it is still full, any header is removed.
+     * @param key Digest of the authorization header.
+     * @param entry Verification of the header.
+     * @param now Current time.
+     */
+    private void remember(String key, Verified entry, long now) {
+        if (verified.size() >= CACHE_SIZE) {
+            HashMap<String, String> users = this.users;
+            verified.values().removeIf(v -> v.users != users || v.expires <= now);
+            if (verified.size() >= CACHE_SIZE) {
+                verified.values().removeIf(v -> !v.authorised);
+            }
+
+            Iterator<String> iterator = verified.keySet().iterator();
+            while (verified.size() >= CACHE_SIZE && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        verified.put(key, entry);
+    }
+
+    /**
+     * Read the credentials table again if the file is changed, checked once every {@link BasicAuth#CHECK_INTERVAL}.
+     * The verified headers of the previous table aren't used anymore.
+     * If the changed file can't be read, the previous table is kept.
+     * @param now Current time.
+     */
+    private void refresh(long now) {
+        if (now - checked < CHECK_INTERVAL) {
+            return;
+        }
+        checked = now;
+
+        long current = file.lastModified();
+        if (current != modified) {
+            modified = current;
+            try {
+                users = read(file);
+                verified.clear();
+            } catch (Exception e) {
+                //
+            }
+        }
+    }
+
+    /**
+     * Verification of an authorization header.
+     */
+    private static class Verified {
+
+        /**
+         * Credentials table the header is verified against.
+         */
+        private final HashMap<String, String> users;
+
+        /**
+         * The header is authorised.
+         */
+        private final boolean authorised;
+
+        /**
+         * Time the verification expires.
+         */
+        private final long expires;
+
+        /**
+         * Constructor.
+         * @param users Credentials table the header is verified against.
+         * @param authorised The header is authorised.
+         * @param expires Time the verification expires.
+         */
+        Verified(HashMap<String, String> users, boolean authorised, long expires) {
+            this.users = users;
+            this.authorised = authorised;
+            this.expires = expires;
+        }
     }
 }
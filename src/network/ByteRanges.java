@@ -0,0 +1,116 @@
+package network;
+
+import java.util.Arrays;
+
+/**
+ * Parser of the byte ranges of a Range header, as described in RFC 7233.
+ * A range header that can't be parsed, or asks for too many ranges, is ignored, so the complete body is responded.
+ */
+public final class ByteRanges {
+
+    /**
+     * Maximum amount of ranges of a single request.
+     */
+    public static final int MAX_RANGES = 16;
+
+    /**
+     * Result of parsing a number that isn't a number.
+     */
+    private static final long INVALID = -2;
+
+    /**
+     * Constructor.
+     */
+    private ByteRanges() {
+    }
+
+    /**
+     * Parse the byte ranges of a Range header.
+     * The ranges are resolved against the length of the body, ranges outside the body are left out.
+     * @param header Value of the Range header, like "bytes=0-499,-500".
+     * @param length Length of the complete body.
+     * @return pairs of the first and last byte (inclusive) of the satisfiable ranges,
+     * an empty array if no range can be satisfied, or null if the header must be ignored.
+     */
+    public static long[] parse(String header, long length) {
+        header = header.trim();
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        String[] items = header.substring(6).split(",");
+        if (items.length > MAX_RANGES) {
+            return null;
+        }
+
+        long[] ranges = new long[items.length * 2];
+        int count = 0;
+        for (String item : items) {
+            item = item.trim();
+            int dash = item.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+
+            long first = parseNumber(item.substring(0, dash).trim());
+            long last = parseNumber(item.substring(dash + 1).trim());
+            if (first == INVALID || last == INVALID) {
+                return null;
+            }
+
+            long start;
+            long end;
+            if (first == -1) {
+
+                // A suffix range, the last bytes of the body.
+                if (last == -1) {
+                    return null;
+                }
+                start = Math.max(0, length - last);
+                end = length - 1;
+                if (last == 0) {
+                    continue;
+                }
+            } else {
+                if (last != -1 && last < first) {
+                    return null;
+                }
+                start = first;
+                end = last == -1 ? length - 1 : Math.min(last, length - 1);
+            }
+
+            if (start >= length) {
+                continue;
+            }
+
+            ranges[count++] = start;
+            ranges[count++] = end;
+        }
+
+        return Arrays.copyOf(ranges, count);
+    }
+
+    /**
+     * Parse a number of a range.
+     * @param text Text of the number.
+     * @return the number, -1 if the text is empty, or {@link ByteRanges#INVALID} if the text isn't a number.
+     */
+    private static long parseNumber(String text) {
+        if (text.isEmpty()) {
+            return -1;
+        }
+        if (text.length() > 18) {
+            return INVALID;
+        }
+
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -1,17 +1,19 @@
 package network;
 
-import files.FileManager;
-import files.rules.RuleSet;
-import files.rules.result.AltHeader;
-
-import java.io.*;
+import java.io.IOException;
 import java.net.Socket;
 
 /**
- * Handle the client request in a own thread.
- * After sending data to the client, the thread will be closed.
+ * Handle the client requests as a task.
+ * The task is executed by a worker of the server. The connection is kept open for following requests,
+ * until the client asks to close it, the maximum amount of requests is reached or the connection is idle for too long.
  */
-public class Client extends Thread {
+public class Client implements Runnable {
+
+    /**
+     * Size of the read buffer of the connection.
+     */
+    private static final int BUFFER_SIZE = 8192;
 
     /**
      * Client socket.
@@ -19,118 +21,114 @@ public class Client extends Thread {
     private Socket socket;
 
     /**
-     * File manager.
+     * Handler that decides the response of the request.
      */
-    private FileManager fileManager;
+    private RequestHandler handler;
 
     /**
-     * List of supported verbs.
+     * Settings of the server.
      */
-    private static final String[] supportedVerbs = new String[] { "GET" };
+    private ServerConfig config;
 
     /**
      * Constructor.
      * @param socket Client socket.
-     * @param fileManager File manager.
+     * @param handler Handler that decides the response of the request.
+     * @param config Settings of the server.
      */
-    public Client(Socket socket, FileManager fileManager) {
+    public Client(Socket socket, RequestHandler handler, ServerConfig config) {
         this.socket = socket;
-        this.fileManager = fileManager;
+        this.handler = handler;
+        this.config = config;
     }
 
     /**
      * Lifetime of requesting data from the server.
-     * Each step that is be needed for a request will here be handled.
+     * The requests are read from the socket, the responses of the {@link RequestHandler} are written back.
      */
     @Override
     public void run() {
         try {
+            socket.setSoTimeout(config.getIdleTimeout() * 1000);
 
             // Handle the input stream from the client.
-            InputStream inputStream = socket.getInputStream();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            // Handle the output stream to the client.
-            OutputStream outputStream = socket.getOutputStream();
-            PrintWriter writer = new PrintWriter(outputStream);
-
-            // Parse the incoming request.
-            Request request = new Request(reader);
-            request.parse();
-
-            try {
-
-                // Check for verb support.
-                if (!isSupportedVerb(request)) {
-                    new Response(Response.METHOD_NOT_ALLOWED).send(outputStream);
-                    return;
-                }
-
-                // If the requested host doesn't exists, use the default host.
-                // The default host is the first entry in the host file.
-                if (!fileManager.hostExists(request.getHost())) {
-                    request.setHost(fileManager.getDefaultHost());
+            // The buffer is kept for all requests, so data of pipelined requests isn't lost.
+            InputBuffer reader = new InputBuffer(socket.getInputStream(), BUFFER_SIZE);
+
+            // Handle the output to the client.
+            // The responses are assembled in the writer and sent with gathering writes.
+            ResponseWriter writer = new ResponseWriter(socket.getChannel());
+
+            int requests = 0;
+            boolean keepAlive = true;
+            while (keepAlive) {
+
+                // Parse the incoming request.
+                // If there is no request, the client has closed the connection.
+                Request request = new Request(reader);
+                try {
+                    if (!request.parse()) {
+                        break;
+                    }
+                } catch (BadRequestException e) {
+
+                    // The request can't be handled, respond the error and close the connection.
+                    Response response = new Response(e.getStatus());
+                    response.send(writer);
+                    writer.flush();
+                    handler.log(request, response, System.nanoTime());
+                    break;
                 }
 
-                // Read the root rule settings file of this requested host.
-                RuleSet ruleSet = fileManager.getRootRuleSet(request.getHost());
+                long started = System.nanoTime();
+                requests++;
+                keepAlive = request.isKeepAlive() && requests < config.getMaxRequests();
 
-                // Checking of the header must be altered,
-                // because of redirects, authorization or likely.
-                // If true, send the header to client and end the lifecycle.
-                AltHeader altHeader = ruleSet.AltHeader(request);
-                if (altHeader != null) {
-                    Response.writeHeader(writer, altHeader);
-                    return;
-                }
+                Response response = handler.handle(request);
+                response.setKeepAlive(keepAlive);
+                response.send(writer);
 
-                // Check of the requested mime/content type is supported.
-                if (!fileManager.hasSupportedMime(request.getHost(), request.getUrl())) {
-                    new Response(Response.UNSUPPORTED_MEDIA_TYPE).send(outputStream);
-                    return;
+                // If a following request is already received, its response is sent together with this one.
+                if (!keepAlive || !reader.hasRemaining()) {
+                    writer.flush();
                 }
-
-                // Get the requested file
-                FileManager.HttpFile file = fileManager.getFile(request.getHost(), request.getUrl());
-
-                // Checking of the file is founded or not.
-                // If founded, parse the file with correct header and send it to the client.
-                // Else send a not found header.
-                if (file != null) {
-                    new Response(file).send(outputStream);
-                } else {
-                    new Response(Response.FILE_NOT_FOUND).send(outputStream);
-                }
-
-            } catch (Exception e) {
-
-                // If some error happens send 505 header.
-                new Response(Response.INTERNAL_ERROR).send(outputStream);
-            } finally {
-
-                // close in all cases the socket.
-                socket.close();
+                handler.log(request, response, started);
             }
         } catch (IOException ioe) {
+
+            // Also thrown if the connection is idle for too long, or if a file is shrunk while its body is sent.
+            // The client can't tell where the body ends then, so the connection is closed.
+        } finally {
+
+            // close in all cases the socket.
             try {
                 socket.close();
-            } catch (Exception e) {
+            } catch (IOException e) {
                 //
             }
         }
     }
 
     /**
-     * Checking of the requested verb type is supported.
-     * @param request Request from the client.
-     * @return Verb type is supported or not.
+     * Reject the connection, because there is no worker available to handle it.
+     * The client will get a {@link Response#SERVICE_UNAVAILABLE} response.
      */
-    private boolean isSupportedVerb(Request request) {
-        for (String item : supportedVerbs) {
-            if (item.equals(request.getVerb())) {
-                return true;
+    public void reject() {
+        long started = System.nanoTime();
+        try {
+            ResponseWriter writer = new ResponseWriter(socket.getChannel());
+            Response response = new Response(Response.SERVICE_UNAVAILABLE);
+            response.send(writer);
+            writer.flush();
+            handler.log(null, response, started);
+        } catch (IOException e) {
+            //
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //
             }
         }
-        return false;
     }
 }
@@ -0,0 +1,305 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable buffer to assemble a HTTP response header.
+ * Status lines and common header lines are encoded once, so assembling a header doesn't format or encode strings.
+ * Each connection has a own buffer, that is reused for all its responses.
+ * Small bodies can be placed behind the header, so the complete response is in one buffer.
+ */
+public class HeaderBuffer {
+
+    /**
+     * Name of the content length header, including the separator.
+     */
+    public static final byte[] CONTENT_LENGTH = encode("Content-Length: ");
+
+    /**
+     * Header line of a response without body.
+     */
+    public static final byte[] NO_CONTENT = encode("Content-Length: 0\r\n");
+
+    /**
+     * Header line of a connection that will be kept open.
+     */
+    public static final byte[] KEEP_ALIVE = encode("Connection: keep-alive\r\n");
+
+    /**
+     * Header line of a connection that will be closed.
+     */
+    public static final byte[] CLOSE = encode("Connection: close\r\n");
+
+    /**
+     * Header line of a body compressed with gzip.
+     */
+    public static final byte[] CONTENT_ENCODING_GZIP = encode("Content-Encoding: gzip\r\n");
+
+    /**
+     * Header line of a body compressed with brotli.
+     */
+    public static final byte[] CONTENT_ENCODING_BROTLI = encode("Content-Encoding: br\r\n");
+
+    /**
+     * Header line of a response that depends on the accepted encodings of the client.
+     */
+    public static final byte[] VARY_ACCEPT_ENCODING = encode("Vary: Accept-Encoding\r\n");
+
+    /**
+     * Header line of a file of which byte ranges can be requested.
+     */
+    public static final byte[] ACCEPT_RANGES = encode("Accept-Ranges: bytes\r\n");
+
+    /**
+     * Name of the content range header, including the separator and the unit.
+     */
+    private static final byte[] CONTENT_RANGE = encode("Content-Range: bytes ");
+
+    /**
+     * End of a line.
+     */
+    private static final byte[] CRLF = encode("\r\n");
+
+    /**
+     * Encoded status lines, indexed by the status code.
+     */
+    private static final byte[][] STATUS_LINES = new byte[600][];
+
+    static {
+        for (int code = 100; code < STATUS_LINES.length; code++) {
+            STATUS_LINES[code] = encodeStatus(code);
+        }
+    }
+
+    /**
+     * Assembled data.
+     */
+    private byte[] data = new byte[256];
+
+    /**
+     * Length of the assembled data.
+     */
+    private int length;
+
+    /**
+     * View on the assembled data.
+     */
+    private ByteBuffer buffer = ByteBuffer.wrap(data);
+
+    /**
+     * Clear the buffer for a new header.
+     */
+    public void reset() {
+        length = 0;
+    }
+
+    /**
+     * Write the status line.
+     * @param code Status of the response.
+     */
+    public void writeStatus(int code) {
+        write(code >= 100 && code < STATUS_LINES.length ? STATUS_LINES[code] : encodeStatus(code));
+    }
+
+    /**
+     * Write encoded data, mostly a complete header line.
+     * @param bytes Encoded data.
+     */
+    public void write(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, data, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Write the remaining data of a body, without changing the position of the body.
+     * @param body Body to write.
+     */
+    public void write(ByteBuffer body) {
+        int size = body.remaining();
+        ensure(size);
+        body.duplicate().get(data, length, size);
+        length += size;
+    }
+
+    /**
+     * Read a part of a file into the buffer.
+     * @param file File to read.
+     * @param position Position in the file to start.
+     * @param size Amount of bytes to read.
+     * @throws IOException Exception, also if the file is shrunk.
+     */
+    public void read(FileChannel file, long position, int size) throws IOException {
+        ensure(size);
+
+        ByteBuffer target = ByteBuffer.wrap(data, length, size);
+        while (target.hasRemaining()) {
+            int read = file.read(target, position + target.position() - length);
+            if (read == -1) {
+                throw new IOException("File is shrunk");
+            }
+        }
+        length += size;
+    }
+
+    /**
+     * Write a header line with a numeric value.
+     * @param name Encoded name of the header, including the separator.
+     * @param value Value of the header.
+     */
+    public void writeHeader(byte[] name, long value) {
+        write(name);
+        writeNumber(value);
+        write(CRLF);
+    }
+
+    /**
+     * Write the content range header line of a byte range.
+     * @param start First byte of the range.
+     * @param end Last byte of the range, inclusive.
+     * @param total Length of the complete body.
+     */
+    public void writeRange(long start, long end, long total) {
+        write(CONTENT_RANGE);
+        writeNumber(start);
+        write((byte) '-');
+        writeNumber(end);
+        write((byte) '/');
+        writeNumber(total);
+        write(CRLF);
+    }
+
+    /**
+     * Write the content range header line of byte ranges that can't be satisfied.
+     * @param total Length of the complete body.
+     */
+    public void writeUnsatisfiedRange(long total) {
+        write(CONTENT_RANGE);
+        write((byte) '*');
+        write((byte) '/');
+        writeNumber(total);
+        write(CRLF);
+    }
+
+    /**
+     * Write a single character.
+     * @param b Encoded character.
+     */
+    private void write(byte b) {
+        ensure(1);
+        data[length++] = b;
+    }
+
+    /**
+     * Write a number as text.
+     * @param value Number to write.
+     */
+    private void writeNumber(long value) {
+
+        // Longest long value has 20 characters (including sign).
+        ensure(20);
+        if (value < 0) {
+            data[length++] = '-';
+            value = -value;
+        }
+
+        int start = length;
+        do {
+            data[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+
+        // The digits are written in reverse order.
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte digit = data[i];
+            data[i] = data[j];
+            data[j] = digit;
+        }
+    }
+
+    /**
+     * Write a header line with a text value.
+     * Characters that don't fit into a byte will be written as a question mark.
+     * @param name Encoded name of the header, including the separator.
+     * @param value Value of the header.
+     */
+    public void writeHeader(byte[] name, String value) {
+        write(name);
+
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            data[length++] = c <= 0xFF ? (byte) c : (byte) '?';
+        }
+
+        write(CRLF);
+    }
+
+    /**
+     * End the header with an empty line.
+     */
+    public void end() {
+        write(CRLF);
+    }
+
+    /**
+     * Get the assembled data.
+     * @return the assembled data, only valid up to {@link HeaderBuffer#getLength()}.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Get the length of the assembled data.
+     * @return the length of the assembled data.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Get a view on the assembled data, ready to be written to a channel.
+     * The view is reused, until the buffer needs to grow.
+     * @return view on the assembled data.
+     */
+    public ByteBuffer getBuffer() {
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    /**
+     * Make sure the buffer has room for the given amount of bytes.
+     * @param size Amount of bytes.
+     */
+    private void ensure(int size) {
+        if (length + size > data.length) {
+            byte[] grown = new byte[Math.max(data.length * 2, length + size)];
+            System.arraycopy(data, 0, grown, 0, length);
+            data = grown;
+            buffer = ByteBuffer.wrap(data);
+        }
+    }
+
+    /**
+     * Encode a header text.
+     * @param text Header text.
+     * @return the encoded text.
+     */
+    public static byte[] encode(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Encode a status line.
+     * @param code Status of the response.
+     * @return the encoded status line.
+     */
+    private static byte[] encodeStatus(int code) {
+        return encode("HTTP/1.1 " + code + " \r\n");
+    }
+}
@@ -0,0 +1,166 @@
+package network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Read buffer of a connection.
+ * The buffer lives as long as the connection, so data of pipelined requests that is read
+ * together with the current request stays available for the following request.
+ *
+ * The buffer is filled from a blocking stream on demand, or by the owner of the buffer from a non-blocking channel.
+ * The size of the buffer is also the maximum size of a request header.
+ */
+public class InputBuffer {
+
+    /**
+     * Stream to fill the buffer from on demand, or null if the buffer is filled by its owner.
+     */
+    private InputStream stream;
+
+    /**
+     * Buffered data.
+     */
+    private byte[] data;
+
+    /**
+     * Position of the next byte to read.
+     */
+    private int position;
+
+    /**
+     * End of the buffered data.
+     */
+    private int limit;
+
+    /**
+     * Position up to where the buffer is already searched for the end of the header.
+     */
+    private int scanned;
+
+    /**
+     * Constructor.
+     * @param stream Stream to fill the buffer from.
+     * @param size Size of the buffer, also the maximum size of a request header.
+     */
+    public InputBuffer(InputStream stream, int size) {
+        this.stream = stream;
+        data = new byte[size];
+    }
+
+    /**
+     * Constructor.
+     * The buffer must be filled by {@link InputBuffer#fill(ReadableByteChannel)}.
+     * @param size Size of the buffer, also the maximum size of a request header.
+     */
+    public InputBuffer(int size) {
+        data = new byte[size];
+    }
+
+    /**
+     * Fill the buffer with the available data of the channel.
+     * @param channel Channel to read from.
+     * @return the amount of read bytes, or -1 at the end of the channel.
+     * @throws IOException Exception.
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        compact();
+
+        int read = channel.read(ByteBuffer.wrap(data, limit, data.length - limit));
+        if (read > 0) {
+            limit += read;
+        }
+        return read;
+    }
+
+    /**
+     * Checking of there is data in the buffer that isn't read yet.
+     * If so, a following request is already (partly) received.
+     * @return there is unread data in the buffer.
+     */
+    public boolean hasRemaining() {
+        return position < limit;
+    }
+
+    /**
+     * Find the end of the request header, the position after the empty line.
+     * A blocking buffer is filled from the stream until the header is complete.
+     * @return the end of the request header, or -1 if the header isn't (completely) received.
+     * @throws IOException Exception.
+     * @throws BadRequestException the header doesn't fit into the buffer.
+     */
+    int findHeaderEnd() throws IOException {
+        while (true) {
+            for (int i = Math.max(position, scanned); i < limit; i++) {
+                if (data[i] != '\n') {
+                    continue;
+                }
+
+                if (i + 1 < limit && data[i + 1] == '\n') {
+                    return i + 2;
+                }
+
+                if (i + 2 < limit && data[i + 1] == '\r' && data[i + 2] == '\n') {
+                    return i + 3;
+                }
+            }
+
+            // The last two bytes can be the start of the empty line.
+            scanned = Math.max(position, limit - 2);
+
+            if (limit - position == data.length) {
+                throw new BadRequestException(Response.HEADER_TOO_LARGE, "Request header too large");
+            }
+
+            if (stream == null) {
+                return -1;
+            }
+
+            compact();
+            int read = stream.read(data, limit, data.length - limit);
+            if (read == -1) {
+                return -1;
+            }
+            limit += read;
+        }
+    }
+
+    /**
+     * Get the buffered data.
+     * @return the buffered data.
+     */
+    byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Get the position of the next byte to read.
+     * @return the position of the next byte to read.
+     */
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * Mark the data up to the given position as read.
+     * @param end Position after the read data.
+     */
+    void consume(int end) {
+        position = end;
+        scanned = end;
+    }
+
+    /**
+     * Move the unread data to the start of the buffer.
+     */
+    private void compact() {
+        if (position > 0) {
+            System.arraycopy(data, position, data, 0, limit - position);
+            limit -= position;
+            scanned = Math.max(0, scanned - position);
+            position = 0;
+        }
+    }
+}
@@ -15,6 +15,16 @@ public class Mime {
      */
     private String mime;
 
+    /**
+     * Encoded content type header line of the mime type.
+     */
+    private byte[] contentType;
+
+    /**
+     * Encoded content type header line of the default mime type.
+     */
+    private static final byte[] defaultContentType = HeaderBuffer.encode("Content-Type: " + getDefault() + "\r\n");
+
     /**
      * Mime is binary or text based.
      * If binary the boolean is true, else false.
@@ -31,6 +41,7 @@ public class Mime {
         this.extension = extension;
         this.mime = mime;
         this.binary = binary;
+        contentType = HeaderBuffer.encode("Content-Type: " + mime + "\r\n");
     }
 
     /**
@@ -49,6 +60,14 @@ public class Mime {
         return mime;
     }
 
+    /**
+     * Get the encoded content type header line of the mime type.
+     * @return the encoded content type header line.
+     */
+    public byte[] getContentType() {
+        return contentType;
+    }
+
     /**
      * Checking of the mime is binary or not.
      * @return the mime is binary or not.
@@ -64,4 +83,12 @@ public class Mime {
     public static String getDefault() {
         return "text/plain";
     }
+
+    /**
+     * Get the encoded content type header line of the default mime type.
+     * @return the encoded content type header line of the default mime type.
+     */
+    public static byte[] getDefaultContentType() {
+        return defaultContentType;
+    }
 }
@@ -0,0 +1,137 @@
+package network;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Hashed password of the credentials table of {@link BasicAuth}.
+ *
+ * A hashed password is stored as "pbkdf2-sha256$iterations$salt$hash", with the salt and the hash in Base64.
+ * The hash is slow on purpose, so a leaked credentials table can't be guessed quickly.
+ * Passwords in plain text are still accepted, so existing tables keep working until they are hashed.
+ *
+ * A hashed password is created by running this class with the password as argument.
+ */
+public final class PasswordHash {
+
+    /**
+     * Name of the algorithm at the start of a hashed password.
+     */
+    private static final String ALGORITHM = "pbkdf2-sha256";
+
+    /**
+     * Amount of iterations of a new hashed password.
+     */
+    private static final int ITERATIONS = 100000;
+
+    /**
+     * Length of the salt in bytes.
+     */
+    private static final int SALT_LENGTH = 16;
+
+    /**
+     * Length of the hash in bits.
+     */
+    private static final int HASH_LENGTH = 256;
+
+    /**
+     * Hashed password with a fixed salt, verified for a user that doesn't exist.
+     */
+    private static final String UNKNOWN_USER = ALGORITHM + "$" + ITERATIONS
+            + "$AAAAAAAAAAAAAAAAAAAAAA==$AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=";
+
+    /**
+     * Constructor.
+     */
+    private PasswordHash() {
+    }
+
+    /**
+     * Print the hashed password of the given password.
+     * @param args The password.
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: PasswordHash <password>");
+            return;
+        }
+        System.out.println(create(args[0]));
+    }
+
+    /**
+     * Create a hashed password with a random salt.
+     * @param password Password in plain text.
+     * @return the hashed password.
+     */
+    public static String create(String password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        new SecureRandom().nextBytes(salt);
+
+        Base64.Encoder encoder = Base64.getEncoder();
+        return ALGORITHM + "$" + ITERATIONS + "$" + encoder.encodeToString(salt) + "$"
+                + encoder.encodeToString(derive(password, salt, ITERATIONS, HASH_LENGTH));
+    }
+
+    /**
+     * Verify a password against a stored password.
+     * The comparison takes the same time for every wrong password of the same length.
+     * @param password Password in plain text, as sent by the client.
+     * @param stored Hashed password, or password in plain text.
+     * @return the password is correct.
+     */
+    public static boolean verify(String password, String stored) {
+        if (!stored.startsWith(ALGORITHM + "$")) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+
+        try {
+            int iterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] hash = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(hash, derive(password, salt, iterations, hash.length * 8));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Verify a password of a user that doesn't exist, it is never correct.
+     * The verification takes as long as the verification of a new hashed password,
+     * so the response time doesn't tell which users exist.
+     * @param password Password in plain text, as sent by the client.
+     */
+    public static void verifyUnknown(String password) {
+        verify(password, UNKNOWN_USER);
+    }
+
+    /**
+     * Derive the hash of a password.
+     * @param password Password in plain text.
+     * @param salt Salt.
+     * @param iterations Amount of iterations.
+     * @param length Length of the hash in bits.
+     * @return the hash.
+     */
+    private static byte[] derive(String password, byte[] salt, int iterations, int length) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, length);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+
+            // Every Java runtime since Java 8 supports this algorithm.
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -1,16 +1,41 @@
 package network;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * HTTP Request
+ *
+ * The request is parsed directly from the bytes in the read buffer of the connection.
+ * Known verbs, protocols and header names are matched against constants, so they don't create new strings.
  */
 public class Request {
 
+    /**
+     * Maximum amount of header arguments.
+     */
+    private static final int MAX_HEADERS = 64;
+
+    /**
+     * Known verbs.
+     */
+    private static final String[] VERBS = { "GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS" };
+
+    /**
+     * Known protocols.
+     */
+    private static final String[] PROTOCOLS = { "HTTP/1.1", "HTTP/1.0" };
+
+    /**
+     * Known names of header arguments.
+     */
+    private static final String[] HEADER_NAMES = {
+            "Host", "Connection", "User-Agent", "Accept", "Accept-Encoding", "Accept-Language",
+            "Authorization", "Cache-Control", "Cookie", "Referer", "If-None-Match", "If-Modified-Since",
+            "Range", "If-Range", "Content-Length", "Transfer-Encoding", "Upgrade-Insecure-Requests"
+    };
+
     /**
      * Verb of the request.
      */
@@ -27,9 +52,29 @@ public class Request {
     private String protocol;
 
     /**
-     * Headers of the request.
+     * Names of the header arguments.
      */
-    private HashMap<String, String> header;
+    private String[] names;
+
+    /**
+     * Values of the header arguments.
+     */
+    private String[] values;
+
+    /**
+     * Amount of header arguments.
+     */
+    private int headers;
+
+    /**
+     * Host argument as received, kept when the host is replaced.
+     */
+    private String receivedHost;
+
+    /**
+     * The host argument is replaced.
+     */
+    private boolean hostReplaced;
 
     /**
      * Body of the request.
@@ -37,79 +82,222 @@ public class Request {
     private String body;
 
     /**
-     * Reader to read the request.
+     * Read buffer of the connection.
      */
-    private BufferedReader reader;
+    private InputBuffer reader;
 
     /**
      * Constructor.
-     * @param reader Reader to read the request.
+     * @param reader Read buffer of the connection, data after the request stays in the buffer.
      */
-    public Request(BufferedReader reader) {
+    public Request(InputBuffer reader) {
         this.reader = reader;
-        this.header = new HashMap<>();
+        names = new String[16];
+        values = new String[16];
     }
 
     /**
      * Parse the received data as a request object.
+     * A blocking read buffer waits until the request is received.
+     * @return a request is parsed, false if the connection is ended or the request isn't completely received yet.
      * @throws IOException Exception.
+     * @throws BadRequestException the request is malformed or too large.
      */
-    public void parse() throws IOException {
-        boolean first = true;
-        boolean body = false;
+    public boolean parse() throws IOException {
+        int end = reader.findHeaderEnd();
+        if (end == -1) {
+            return false;
+        }
 
-        String line;
-        while ((line = reader.readLine()) != null) {
-            if (first) {
-                first = false;
-                parseInitLine(line);
-                continue;
-            } else if (line.equals(" ")) {
-                body = true;
-                continue;
-            } else if (line.equals("")) {
+        byte[] data = reader.getData();
+        int position = reader.getPosition();
+        reader.consume(end);
+
+        position = parseInitLine(data, position, end);
+
+        // Parse the header arguments until the empty line.
+        // need implementation if sending body will be supported.
+        while (true) {
+            int lineEnd = lineEnd(data, position, end);
+            int next = lineEnd < end && data[lineEnd] == '\r' ? lineEnd + 2 : lineEnd + 1;
+            if (lineEnd == position) {
                 break;
             }
 
-            if (!body) {
-                parseArguments(line);
-            } else {
-                // need implementation if sending body will be supported.
-            }
+            parseArgument(data, position, lineEnd);
+            position = next;
         }
+
+        return true;
     }
 
     /**
      * Parse the first line of the request.
-     * @param line Data of the line.
+     * @param data Received data.
+     * @param start Start of the line.
+     * @param end End of the request header.
+     * @return start of the next line.
+     * @throws BadRequestException the line or its url is malformed.
      */
-    private void parseInitLine(String line) {
-        String[] parts = line.split(" ");
-        verb = parts[0];
-        url = new Url(parts[1]);
-        protocol = parts[2];
+    private int parseInitLine(byte[] data, int start, int end) throws BadRequestException {
+        int lineEnd = lineEnd(data, start, end);
+
+        int verbEnd = indexOf(data, start, lineEnd, (byte) ' ');
+        int urlEnd = verbEnd > start ? indexOf(data, verbEnd + 1, lineEnd, (byte) ' ') : -1;
+        if (urlEnd == -1 || urlEnd == verbEnd + 1 || urlEnd == lineEnd - 1) {
+            throw new BadRequestException(Response.BAD_REQUEST, "Malformed request line");
+        }
+
+        verb = match(VERBS, data, start, verbEnd, false);
+        url = new Url(data, verbEnd + 1, urlEnd);
+        protocol = match(PROTOCOLS, data, urlEnd + 1, lineEnd, false);
+
+        return lineEnd < end && data[lineEnd] == '\r' ? lineEnd + 2 : lineEnd + 1;
     }
 
     /**
      * Parse header argument.
-     * @param line Line to parse.
+     * The name is matched case-insensitive, white space around the value is ignored.
+     * @param data Received data.
+     * @param start Start of the line.
+     * @param end End of the line.
+     * @throws BadRequestException the argument is malformed or there are too many arguments.
      */
-    private void parseArguments(String line) {
-        Pattern pattern = Pattern.compile("(\\S+): (.*)");
-        Matcher m = pattern.matcher(line);
+    private void parseArgument(byte[] data, int start, int end) throws BadRequestException {
+        int colon = indexOf(data, start, end, (byte) ':');
+        if (colon <= start) {
+            throw new BadRequestException(Response.BAD_REQUEST, "Malformed header argument");
+        }
+
+        if (headers == MAX_HEADERS) {
+            throw new BadRequestException(Response.HEADER_TOO_LARGE, "Too many header arguments");
+        }
 
-        while (m.find()) {
-            header.put(m.group(1), m.group(2));
+        int valueStart = colon + 1;
+        while (valueStart < end && (data[valueStart] == ' ' || data[valueStart] == '\t')) {
+            valueStart++;
         }
+
+        int valueEnd = end;
+        while (valueEnd > valueStart && (data[valueEnd - 1] == ' ' || data[valueEnd - 1] == '\t')) {
+            valueEnd--;
+        }
+
+        putArgument(match(HEADER_NAMES, data, start, colon, true),
+                new String(data, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Set a header argument, an existing argument with the same name will be replaced.
+     * @param key Name of the argument.
+     * @param value Value of the argument.
+     */
+    private void putArgument(String key, String value) {
+        for (int i = 0; i < headers; i++) {
+            if (names[i].equalsIgnoreCase(key)) {
+                values[i] = value;
+                return;
+            }
+        }
+
+        if (headers == names.length) {
+            names = Arrays.copyOf(names, headers * 2);
+            values = Arrays.copyOf(values, headers * 2);
+        }
+
+        names[headers] = key;
+        values[headers] = value;
+        headers++;
     }
 
     /**
      * Get a header argument.
+     * The name is case-insensitive.
      * @param key Name of the argument.
      * @return requested header argument.
      */
     public String getArgument(String key) {
-        return header.get(key);
+        for (int i = 0; i < headers; i++) {
+            if (names[i].equalsIgnoreCase(key)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the end of the line, the position of the carriage return or line feed.
+     * @param data Received data.
+     * @param start Start of the line.
+     * @param end End of the request header.
+     * @return the end of the line.
+     */
+    private static int lineEnd(byte[] data, int start, int end) {
+        int i = indexOf(data, start, end, (byte) '\n');
+        if (i == -1) {
+            return end;
+        }
+        return i > start && data[i - 1] == '\r' ? i - 1 : i;
+    }
+
+    /**
+     * Find the first position of a byte.
+     * @param data Received data.
+     * @param start Start of the search.
+     * @param end End of the search.
+     * @param value Byte to find.
+     * @return position of the byte, or -1 if not found.
+     */
+    private static int indexOf(byte[] data, int start, int end, byte value) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Match the data against known constants.
+     * If no constant matches, a new string of the data is created.
+     * @param constants Known constants.
+     * @param data Received data.
+     * @param start Start of the data.
+     * @param end End of the data.
+     * @param ignoreCase Match case-insensitive.
+     * @return the matching constant, or a new string.
+     */
+    private static String match(String[] constants, byte[] data, int start, int end, boolean ignoreCase) {
+        int length = end - start;
+        for (String constant : constants) {
+            if (constant.length() != length) {
+                continue;
+            }
+
+            int i = 0;
+            while (i < length && equals(constant.charAt(i), data[start + i], ignoreCase)) {
+                i++;
+            }
+
+            if (i == length) {
+                return constant;
+            }
+        }
+        return new String(data, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Compare a character of a constant with a received byte.
+     * @param c Character of the constant.
+     * @param b Received byte.
+     * @param ignoreCase Compare case-insensitive.
+     * @return the character and the byte are equal.
+     */
+    private static boolean equals(char c, byte b, boolean ignoreCase) {
+        if (c == b) {
+            return true;
+        }
+        return ignoreCase && Character.isLetter(c) && (c | 0x20) == (b | 0x20);
     }
 
     /**
@@ -136,6 +324,74 @@ public class Request {
         return protocol;
     }
 
+    /**
+     * Connection can be kept open after the response of this request.
+     * HTTP/1.1 keeps the connection open unless the client asks to close it,
+     * HTTP/1.0 only if the client asks for it.
+     * A request with a body is never kept open, because the body isn't read.
+     * @return connection can be kept open.
+     */
+    public boolean isKeepAlive() {
+        String length = getArgument("Content-Length");
+        if ((length != null && !length.equals("0")) || getArgument("Transfer-Encoding") != null) {
+            return false;
+        }
+
+        String connection = getArgument("Connection");
+        if ("HTTP/1.1".equals(protocol)) {
+            return connection == null || !connection.toLowerCase().contains("close");
+        }
+        return connection != null && connection.toLowerCase().contains("keep-alive");
+    }
+
+    /**
+     * Checking of the client accepts the given content coding.
+     * A coding is accepted if it is listed, or covered by "*", without a quality of zero.
+     * @param coding Content coding, like "gzip".
+     * @return the client accepts the content coding.
+     */
+    public boolean acceptsEncoding(String coding) {
+        String accept = getArgument("Accept-Encoding");
+        if (accept == null) {
+            return false;
+        }
+
+        boolean wildcard = false;
+        for (String item : accept.split(",")) {
+            int separator = item.indexOf(';');
+            String name = (separator == -1 ? item : item.substring(0, separator)).trim();
+            boolean acceptable = separator == -1 || !isZeroQuality(item.substring(separator + 1));
+
+            // A listed coding overrules the wildcard.
+            if (name.equalsIgnoreCase(coding)) {
+                return acceptable;
+            }
+            if (name.equals("*")) {
+                wildcard = acceptable;
+            }
+        }
+        return wildcard;
+    }
+
+    /**
+     * Checking of the parameters of an accepted value have a quality of zero.
+     * @param parameters Parameters of the value, like "q=0".
+     * @return the quality is zero.
+     */
+    private static boolean isZeroQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            parameter = parameter.trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Get host argument of the request.
      * @return host argument of the request.
@@ -144,11 +400,24 @@ public class Request {
         return getArgument("Host");
     }
 
+    /**
+     * Get host argument of the request as received, before it is replaced.
+     * @return host argument of the request as received.
+     */
+    public String getReceivedHost() {
+        return hostReplaced ? receivedHost : getHost();
+    }
+
     /**
      * Set host argument of the request.
+     * The received host argument is kept, see {@link Request#getReceivedHost()}.
      * @param host hostname.
      */
     public void setHost(String host) {
-        header.put("Host", host);
+        if (!hostReplaced) {
+            receivedHost = getHost();
+            hostReplaced = true;
+        }
+        putArgument("Host", host);
     }
 }
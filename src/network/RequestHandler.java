@@ -0,0 +1,141 @@
+package network;
+
+import files.FileManager;
+import files.rules.RuleSet;
+import files.rules.result.AltHeader;
+
+/**
+ * Decide how a parsed request will be answered.
+ * The handler is shared by all connections, independent of the way the server handles its connections.
+ */
+public class RequestHandler {
+
+    /**
+     * File manager.
+     */
+    private FileManager fileManager;
+
+    /**
+     * Access log, or null if no access log is written.
+     */
+    private AccessLog accessLog;
+
+    /**
+     * List of supported verbs.
+     */
+    private static final String[] supportedVerbs = new String[] { "GET" };
+
+    /**
+     * Constructor.
+     * @param fileManager File manager.
+     */
+    public RequestHandler(FileManager fileManager) {
+        this.fileManager = fileManager;
+    }
+
+    /**
+     * Set the access log of the handled requests.
+     * @param accessLog Access log, or null if no access log is written.
+     */
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * Log a request of which the response is sent.
+     * @param request Request, possibly not completely parsed, or null if the connection is rejected.
+     * @param response Sent response.
+     * @param started Time in nanoseconds the handling of the request started.
+     */
+    public void log(Request request, Response response, long started) {
+        if (accessLog != null) {
+            accessLog.log(request, response.getStatus(), response.getContentLength(), started);
+        }
+    }
+
+    /**
+     * Create the response of the given request.
+     * Each step that is be needed for a request will here be handled.
+     * @param request Parsed request of the client.
+     * @return the response to send to the client.
+     */
+    public Response handle(Request request) {
+        try {
+
+            // Check for verb support.
+            if (!isSupportedVerb(request)) {
+                return new Response(Response.METHOD_NOT_ALLOWED);
+            }
+
+            // If the requested host doesn't exists, use the default host.
+            // The default host is the first entry in the host file.
+            if (!fileManager.hostExists(request.getHost())) {
+                request.setHost(fileManager.getDefaultHost());
+            }
+
+            // Checking of the header must be altered,
+            // because of redirects, authorization or likely.
+            // If true, send only the altered header to client.
+            // This is checked before the url is resolved, so a redirected url never touches the file system.
+            RuleSet rootRuleSet = fileManager.getRootRuleSet(request.getHost());
+            AltHeader altHeader = rootRuleSet != null ? rootRuleSet.AltHeader(request) : null;
+            if (altHeader != null) {
+                return new Response(altHeader);
+            }
+
+            // Resolve the requested url in the index of the host.
+            FileManager.Lookup lookup = fileManager.lookup(request.getHost(), request.getUrl());
+
+            // Check of the requested mime/content type is supported.
+            if (!lookup.isSupported()) {
+                return new Response(Response.UNSUPPORTED_MEDIA_TYPE);
+            }
+
+            // Get the requested file
+            FileManager.HttpFile file = lookup.getFile();
+
+            // Checking of the file is founded or not.
+            // Else respond a not found header.
+            if (file == null) {
+                return new Response(Response.FILE_NOT_FOUND);
+            }
+
+            // Respond the best variant of the file that the client accepts with correct header.
+            // If the client has the current version already, respond only that it isn't modified.
+            FileManager.HttpFile variant = file.getVariant(request);
+            if (variant.getValidator().isNotModified(request)) {
+                return new Response(variant, Response.NOT_MODIFIED);
+            }
+
+            // Byte ranges of binary files are responded, if the client still has the same version.
+            Response response = new Response(variant);
+            String range = request.getArgument("Range");
+            if (range != null && variant.getMime().isBinary() && variant.getContentEncoding() == null) {
+                String ifRange = request.getArgument("If-Range");
+                if (ifRange == null || variant.getValidator().matchesRange(ifRange)) {
+                    response.setRange(range);
+                }
+            }
+            return response;
+
+        } catch (Exception e) {
+
+            // If some error happens send 500 header.
+            return new Response(Response.INTERNAL_ERROR);
+        }
+    }
+
+    /**
+     * Checking of the requested verb type is supported.
+     * @param request Request from the client.
+     * @return Verb type is supported or not.
+     */
+    private boolean isSupportedVerb(Request request) {
+        for (String item : supportedVerbs) {
+            if (item.equals(request.getVerb())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
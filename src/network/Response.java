@@ -4,6 +4,10 @@ import files.FileManager;
 import files.rules.result.AltHeader;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.SecureRandom;
 
 /**
  * HTTP Response
@@ -15,6 +19,31 @@ public class Response {
      */
     public static final int OK = 200;
 
+    /**
+     * HTTP PARTIAL CONTENT
+     */
+    public static final int PARTIAL_CONTENT = 206;
+
+    /**
+     * HTTP NOT MODIFIED
+     */
+    public static final int NOT_MODIFIED = 304;
+
+    /**
+     * HTTP BAD REQUEST
+     */
+    public static final int BAD_REQUEST = 400;
+
+    /**
+     * HTTP REQUEST HEADER FIELDS TOO LARGE
+     */
+    public static final int HEADER_TOO_LARGE = 431;
+
+    /**
+     * HTTP RANGE NOT SATISFIABLE
+     */
+    public static final int RANGE_NOT_SATISFIABLE = 416;
+
     /**
      * HTTP INTERNAL ERROR
      */
@@ -35,6 +64,11 @@ public class Response {
      */
     public static final int METHOD_NOT_ALLOWED = 405;
 
+    /**
+     * HTTP SERVICE UNAVAILABLE
+     */
+    public static final int SERVICE_UNAVAILABLE = 503;
+
     /**
      * Status of the response.
      */
@@ -45,6 +79,67 @@ public class Response {
      */
     private FileManager.HttpFile httpFile;
 
+    /**
+     * Altered header, used instead of a file.
+     */
+    private AltHeader altHeader;
+
+    /**
+     * Connection will be kept open after the response.
+     */
+    private boolean keepAlive;
+
+    /**
+     * Opened body of the response.
+     * Only available between {@link Response#open()} and {@link Response#close()}.
+     */
+    private FileChannel body;
+
+    /**
+     * Cached body of the response, used instead of the opened body.
+     */
+    private ByteBuffer content;
+
+    /**
+     * Size of the body of the response.
+     */
+    private long contentLength;
+
+    /**
+     * Requested byte ranges, the value of the Range header, or null if the complete body is requested.
+     */
+    private String range;
+
+    /**
+     * Pairs of the first and last byte of the responded ranges, or null if the complete body is responded.
+     */
+    private long[] ranges;
+
+    /**
+     * Encoded headers of the parts of a multipart response, one before each range.
+     */
+    private byte[][] parts;
+
+    /**
+     * Encoded end of a multipart response.
+     */
+    private byte[] closing;
+
+    /**
+     * Length of the complete file, when byte ranges are requested.
+     */
+    private long totalLength;
+
+    /**
+     * Boundary between the parts of a multipart response.
+     */
+    private static final String BOUNDARY = Long.toHexString(new SecureRandom().nextLong() | Long.MIN_VALUE);
+
+    /**
+     * Encoded content type header line of a multipart response.
+     */
+    private static final byte[] MULTIPART_TYPE = HeaderBuffer.encode("Content-Type: multipart/byteranges; boundary=" + BOUNDARY + "\r\n");
+
     /**
      * Constructor.
      * @param httpFile Requested file.
@@ -54,6 +149,16 @@ public class Response {
         status = OK;
     }
 
+    /**
+     * Constructor.
+     * @param httpFile Requested file.
+     * @param status Status of the response, like {@link Response#NOT_MODIFIED}.
+     */
+    public Response(FileManager.HttpFile httpFile, int status) {
+        this.httpFile = httpFile;
+        this.status = status;
+    }
+
     /**
      * Constructor.
      * @param status Status of the response.
@@ -62,124 +167,339 @@ public class Response {
         this.status = status;
     }
 
+    /**
+     * Constructor.
+     * @param altHeader Altered header, because of redirects, authorization or likely.
+     */
+    public Response(AltHeader altHeader) {
+        this.altHeader = altHeader;
+        status = altHeader.getHttpCode();
+    }
+
     /**
      * Create HTTP response header.
-     * @param writer Writer to write to.
-     * @param code Status of the response.
+     * @param buffer Buffer to write to.
+     * @param contentType Encoded content type header line.
      * @param size Size of the body of the request.
      */
-    private void writeHeader(PrintWriter writer, int code, long size) {
-        writeHeader(writer, code, httpFile.getMime().getMime(), size);
+    private void writeHeader(HeaderBuffer buffer, byte[] contentType, long size) {
+        buffer.writeStatus(status); // Version & status code
+        buffer.write(contentType); // The type of data
+        if (hasBody()) {
+            writeEncoding(buffer); // The encoding of data
+            buffer.write(httpFile.getValidator().getHeader()); // The version of data
+            writeRanges(buffer); // The ranges of data
+        } else if (status == RANGE_NOT_SATISFIABLE) {
+            buffer.writeUnsatisfiedRange(totalLength);
+        }
+        buffer.writeHeader(HeaderBuffer.CONTENT_LENGTH, size); // The size of data
+        buffer.write(keepAlive ? HeaderBuffer.KEEP_ALIVE : HeaderBuffer.CLOSE); // Will keep or close stream
+        buffer.end(); // End of headers
     }
 
     /**
-     * Create HTTP response header.
-     * @param writer Writer to write to.
-     * @param code Status of the response.
-     * @param contentType Content type of the request.
+     * Create HTTP response header of a file that isn't modified.
+     * The header has no body, so no content length is written.
+     * @param buffer Buffer to write to.
      */
-    private void writeHeader(PrintWriter writer, int code, String contentType) {
-        writeHeader(writer, code, contentType, 0);
+    private void writeNotModified(HeaderBuffer buffer) {
+        buffer.writeStatus(status); // Version & status code
+        buffer.write(httpFile.getValidator().getHeader()); // The version of data
+        if (httpFile.isNegotiated()) {
+            buffer.write(HeaderBuffer.VARY_ACCEPT_ENCODING);
+        }
+        buffer.write(keepAlive ? HeaderBuffer.KEEP_ALIVE : HeaderBuffer.CLOSE); // Will keep or close stream
+        buffer.end(); // End of headers
     }
 
     /**
-     * Create HTTP response header.
-     * @param writer Writer to write to.
-     * @param code Status of the response.
-     * @param contentType Content type of the request.
-     * @param size Size of the body of the request.
+     * Write the header lines about the byte ranges of the body.
+     * @param buffer Buffer to write to.
      */
-    private void writeHeader(PrintWriter writer, int code, String contentType, long size) {
-        writer.printf("HTTP/1.1 %s \r\n", code); // Version & status code
-        writer.printf("Content-Type: %s\r\n", contentType); // The type of data
-        writer.printf("Content-Length: %d\r\n", size); // The size of data
-        writer.print("Connection: close\r\n"); // Will close stream
-        writer.print("\r\n"); // End of headers
-        writer.flush();
+    private void writeRanges(HeaderBuffer buffer) {
+        if (httpFile.getMime().isBinary() && httpFile.getContentEncoding() == null) {
+            buffer.write(HeaderBuffer.ACCEPT_RANGES);
+        }
+        if (ranges != null && parts == null) {
+            buffer.writeRange(ranges[0], ranges[1], totalLength);
+        }
+    }
+
+    /**
+     * Write the header lines about the encoding of the body.
+     * @param buffer Buffer to write to.
+     */
+    private void writeEncoding(HeaderBuffer buffer) {
+        if (httpFile.getContentEncoding() != null) {
+            buffer.write(httpFile.getContentEncoding());
+        }
+        if (httpFile.isNegotiated()) {
+            buffer.write(HeaderBuffer.VARY_ACCEPT_ENCODING);
+        }
     }
 
     /**
      * Create HTTP response header.
-     * @param writer Writer to write to.
+     * @param buffer Buffer to write to.
      * @param header Header data.
      */
-    public static void writeHeader(PrintWriter writer, AltHeader header) {
-        writer.printf("HTTP/1.1 %s \r\n", header.getHttpCode()); // Version & status code
-        writer.printf("Content-Type: %s\r\n", "text/plain"); // The type of data
+    private void writeHeader(HeaderBuffer buffer, AltHeader header) {
+        buffer.writeStatus(header.getHttpCode()); // Version & status code
+        buffer.write(Mime.getDefaultContentType()); // The type of data
+        buffer.write(HeaderBuffer.NO_CONTENT); // No data
 
-        header.getHeader(writer);
+        header.getHeader(buffer);
 
-        writer.print("Connection: close\r\n"); // Will close stream
-        writer.print("\r\n"); // End of headers
-        writer.flush();
+        buffer.write(keepAlive ? HeaderBuffer.KEEP_ALIVE : HeaderBuffer.CLOSE); // Will keep or close stream
+        buffer.end(); // End of headers
     }
 
     /**
-     * Send the requested data to the client as a HTTP response.
-     * @param stream Output stream of the {@link Client#socket}.
+     * Set of the connection will be kept open after the response.
+     * @param keepAlive Connection will be kept open.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Set the requested byte ranges.
+     * The ranges are only responded if they can be applied to the file, see {@link ByteRanges#parse(String, long)}.
+     * @param range Value of the Range header.
+     */
+    public void setRange(String range) {
+        this.range = range;
+    }
+
+    /**
+     * Get the status of the response.
+     * @return the status of the response.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Open the body of the response.
+     * If the requested file can't be opened, the status will be changed into an error status without body.
+     * After opening, the response must be closed by {@link Response#close()}.
      */
-    public void send(OutputStream stream) {
-        PrintWriter writer = new PrintWriter(stream);
-        if (status >= 300 || status <= 100) {
-            writeHeader(writer, status, Mime.getDefault());
+    public void open() {
+        if (status < 300 && status > 100) {
+            if (httpFile != null && (content = httpFile.getCached()) == null && httpFile.getOriginal() != httpFile) {
 
-            if (status >= 500) {
-                System.err.println(status + " error raised");
+                // The file isn't worth compressing, respond the original file.
+                httpFile = httpFile.getOriginal();
+                content = httpFile.getCached();
             }
-        } else {
-            if (httpFile != null) {
+
+            if (httpFile == null) {
+                status = FILE_NOT_FOUND;
+            } else if (content != null) {
+                contentLength = content.remaining();
+            } else {
                 File file = httpFile.getFile();
                 if (!file.canRead()) {
-                    writeHeader(writer, INTERNAL_ERROR, Mime.getDefault());
-                    return;
+                    status = INTERNAL_ERROR;
+                } else {
+                    try {
+                        body = new FileInputStream(file).getChannel();
+                        contentLength = body.size();
+                    } catch (FileNotFoundException e) {
+                        status = FILE_NOT_FOUND;
+                    } catch (IOException e) {
+                        close();
+                        status = INTERNAL_ERROR;
+                    }
                 }
+            }
 
-                try {
-                    if (httpFile.getMime().isBinary()) {
-                        DataOutputStream out = new DataOutputStream(stream);
+            if (range != null && hasBody()) {
+                openRanges();
+            }
+        }
 
-                        // buffer each time 256 bytes
-                        byte[] buffer = new byte[256];
-                        FileInputStream reader = new FileInputStream(file);
+        // The size of the body is logged, a response without body has none.
+        if (!hasBody()) {
+            contentLength = 0;
+        }
+    }
 
-                        int length;
-                        while ((length = reader.read(buffer)) != -1) {
-                            out.write(buffer, 0, length);
-                        }
+    /**
+     * Apply the requested byte ranges to the opened body.
+     * A single range is responded as the body, multiple ranges as a multipart body.
+     */
+    private void openRanges() {
+        long[] parsed = ByteRanges.parse(range, contentLength);
+        if (parsed == null) {
+            return;
+        }
 
-                        reader.close();
+        totalLength = contentLength;
+        if (parsed.length == 0) {
+            close();
+            status = RANGE_NOT_SATISFIABLE;
+            return;
+        }
 
-                        writeHeader(writer, status, out.size());
+        status = PARTIAL_CONTENT;
+        ranges = parsed;
+        if (ranges.length == 2) {
+            contentLength = ranges[1] - ranges[0] + 1;
+            return;
+        }
 
-                        writer.flush();
-                        out.flush();
-                    } else {
-                        long size = 0;
-                        PrintWriter writer1 = new PrintWriter(stream);
+        parts = new byte[ranges.length / 2][];
+        closing = HeaderBuffer.encode("\r\n--" + BOUNDARY + "--\r\n");
+        contentLength = closing.length;
+        for (int i = 0; i < parts.length; i++) {
+            long start = ranges[i * 2];
+            long end = ranges[i * 2 + 1];
 
-                        // buffer each time 256 characters (256 bytes)
-                        char[] buffer = new char[256];
-                        FileReader reader = new FileReader(file);
+            // Each part starts on a new line, the line break belongs to the boundary.
+            parts[i] = HeaderBuffer.encode((i > 0 ? "\r\n" : "") + "--" + BOUNDARY + "\r\n" +
+                    "Content-Type: " + httpFile.getMime().getMime() + "\r\n" +
+                    "Content-Range: bytes " + start + "-" + end + "/" + totalLength + "\r\n\r\n");
+            contentLength += parts[i].length + end - start + 1;
+        }
+    }
 
-                        long _size;
-                        while ((_size = reader.read(buffer)) != -1) {
-                            size += _size;
-                            writer1.write(buffer);
-                        }
+    /**
+     * Assemble the HTTP response header into the buffer.
+     * Must be called after {@link Response#open()}, so the status and the size of the body are known.
+     * @param buffer Buffer of the connection, the header is written behind the present content.
+     */
+    public void writeHeader(HeaderBuffer buffer) {
+        if (altHeader != null) {
+            writeHeader(buffer, altHeader);
+        } else if (status == NOT_MODIFIED && httpFile != null) {
+            writeNotModified(buffer);
+        } else if (hasBody()) {
+            writeHeader(buffer, parts != null ? MULTIPART_TYPE : httpFile.getMime().getContentType(), contentLength);
+        } else {
+            writeHeader(buffer, Mime.getDefaultContentType(), 0);
+        }
+    }
 
-                        writeHeader(writer, status, size);
+    /**
+     * Checking of the response has a body.
+     * @return the response has a body.
+     */
+    public boolean hasBody() {
+        return body != null || content != null;
+    }
 
-                        writer.flush();
-                        writer1.flush();
-                    }
-                } catch (FileNotFoundException e) {
-                    writeHeader(writer, FILE_NOT_FOUND, Mime.getDefault());
-                } catch (IOException e) {
-                    writeHeader(writer, INTERNAL_ERROR, Mime.getDefault());
+    /**
+     * Get the body of the response in memory.
+     * @return the body in memory, or null if the body is a file, byte ranges are responded or there is no body.
+     */
+    public ByteBuffer getContent() {
+        return ranges == null ? content : null;
+    }
+
+    /**
+     * Get the size of the body of the response.
+     * @return the size of the body of the response.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Close the opened body of the response.
+     */
+    public void close() {
+        content = null;
+
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                //
+            }
+            body = null;
+        }
+    }
+
+    /**
+     * Send the requested data to the client as a HTTP response.
+     * The header and a small body are placed into the buffer of the writer, a large body is referenced or transferred.
+     * The writer isn't flushed after the response, so the responses of pipelined requests can be sent together.
+     * If the body can't be sent completely, the connection must be closed,
+     * because the header with the full content length is already written.
+     * @param writer Response writer of the {@link Client#socket}.
+     * @throws IOException the connection is lost, or the file is shrunk while it is sent.
+     */
+    public void send(ResponseWriter writer) throws IOException {
+        open();
+        try {
+            writeHeader(writer.getBuffer());
+
+            if (ranges != null) {
+                writer.transfer(this);
+            } else if (content != null) {
+                writer.write(content);
+            } else if (body != null) {
+                writer.write(body, contentLength);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Transfer the body into the channel, starting at the given position.
+     * If the operating system supports it, the data is sent without copying it through the application.
+     * A non-blocking channel may accept only a part of the body.
+     * @param channel Channel to transfer to.
+     * @param position Position in the body to start.
+     * @return the amount of transferred bytes.
+     * @throws IOException Exception, also if the file is shrunk.
+     */
+    public long transfer(WritableByteChannel channel, long position) throws IOException {
+        if (ranges == null) {
+            return transfer(channel, position, contentLength - position);
+        }
+
+        // Find the part of the body of the position.
+        long offset = position;
+        for (int i = 0; i < ranges.length / 2; i++) {
+            if (parts != null) {
+                if (offset < parts[i].length) {
+                    return channel.write(ByteBuffer.wrap(parts[i], (int) offset, parts[i].length - (int) offset));
                 }
-            } else {
-                writeHeader(writer, FILE_NOT_FOUND, Mime.getDefault());
+                offset -= parts[i].length;
             }
+
+            long start = ranges[i * 2];
+            long size = ranges[i * 2 + 1] - start + 1;
+            if (offset < size) {
+                return transfer(channel, start + offset, size - offset);
+            }
+            offset -= size;
+        }
+        return channel.write(ByteBuffer.wrap(closing, (int) offset, closing.length - (int) offset));
+    }
+
+    /**
+     * Transfer a range of the file into the channel.
+     * The file is read from the given position on, the bytes before it are never read.
+     * @param channel Channel to transfer to.
+     * @param position Position in the file to start.
+     * @param count Amount of bytes to transfer.
+     * @return the amount of transferred bytes.
+     * @throws IOException Exception, also if the file is shrunk.
+     */
+    private long transfer(WritableByteChannel channel, long position, long count) throws IOException {
+        if (content != null) {
+            content.limit((int) (position + count)).position((int) position);
+            return channel.write(content);
+        }
+
+        long transferred = body.transferTo(position, count, channel);
+        if (transferred == 0 && position >= body.size()) {
+            throw new IOException("File is shrunk");
         }
+        return transferred;
     }
 }
@@ -0,0 +1,160 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+/**
+ * Writer of the responses of a blocking connection.
+ * Headers and small bodies are placed in order into the {@link HeaderBuffer} of the connection,
+ * larger bodies in memory are referenced. On a flush all parts are written with a single gathering write,
+ * so a small response, or a group of responses to pipelined requests, goes out in one system call.
+ * Bodies of large files are transferred directly from the file into the channel.
+ */
+public class ResponseWriter {
+
+    /**
+     * Maximum size of a body that is copied behind the header.
+     */
+    private static final int COPY_LIMIT = 16384;
+
+    /**
+     * Channel of the connection.
+     */
+    private GatheringByteChannel channel;
+
+    /**
+     * Buffer with the headers and small bodies that are not yet written.
+     */
+    private HeaderBuffer buffer = new HeaderBuffer();
+
+    /**
+     * Parts to write, in order.
+     */
+    private ByteBuffer[] parts = new ByteBuffer[8];
+
+    /**
+     * Amount of parts to write.
+     */
+    private int count;
+
+    /**
+     * Start of the data in the buffer, that isn't yet added to the parts.
+     */
+    private int staged;
+
+    /**
+     * Constructor.
+     * @param channel Channel of the connection.
+     */
+    public ResponseWriter(GatheringByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Get the buffer to write a response header into.
+     * @return the buffer to write a response header into.
+     */
+    public HeaderBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Write a body in memory behind the header.
+     * @param body Body to write.
+     */
+    public void write(ByteBuffer body) {
+        if (body.remaining() <= COPY_LIMIT) {
+            buffer.write(body);
+        } else {
+            cut();
+            add(body.duplicate());
+        }
+    }
+
+    /**
+     * Write a body of a file behind the header.
+     * A small body is read behind the header, a large body is transferred directly into the channel.
+     * @param file File to write.
+     * @param size Size of the body.
+     * @throws IOException Exception, also if the file is shrunk.
+     */
+    public void write(FileChannel file, long size) throws IOException {
+        if (size <= COPY_LIMIT) {
+            buffer.read(file, 0, (int) size);
+            return;
+        }
+
+        // The header must be on the wire before the body is transferred.
+        flush();
+
+        long position = 0;
+        while (position < size) {
+            long transferred = file.transferTo(position, size - position, channel);
+            if (transferred == 0 && position >= file.size()) {
+                throw new IOException("File is shrunk");
+            }
+            position += transferred;
+        }
+    }
+
+    /**
+     * Write the body of a response part by part, like the byte ranges of a file.
+     * @param response Opened response.
+     * @throws IOException Exception, also if the file is shrunk.
+     */
+    public void transfer(Response response) throws IOException {
+
+        // The header must be on the wire before the body is transferred.
+        flush();
+
+        long position = 0;
+        while (position < response.getContentLength()) {
+            position += response.transfer(channel, position);
+        }
+    }
+
+    /**
+     * Write all waiting parts with a single gathering write.
+     * @throws IOException Exception.
+     */
+    public void flush() throws IOException {
+        cut();
+
+        int first = 0;
+        while (first < count) {
+            channel.write(parts, first, count - first);
+            while (first < count && !parts[first].hasRemaining()) {
+                parts[first++] = null;
+            }
+        }
+
+        count = 0;
+        staged = 0;
+        buffer.reset();
+    }
+
+    /**
+     * Add the data in the buffer, that isn't yet added, as a part.
+     */
+    private void cut() {
+        int length = buffer.getLength();
+        if (length > staged) {
+            add(ByteBuffer.wrap(buffer.getData(), staged, length - staged));
+            staged = length;
+        }
+    }
+
+    /**
+     * Add a part to write.
+     * @param part Part to write.
+     */
+    private void add(ByteBuffer part) {
+        if (count == parts.length) {
+            parts = Arrays.copyOf(parts, count * 2);
+        }
+        parts[count++] = part;
+    }
+}
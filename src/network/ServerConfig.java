@@ -0,0 +1,451 @@
+package network;
+
+import files.ConfigReader;
+import files.ConfigReaderListener;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Settings of the server.
+ * The settings are read from the server settings file, if a setting isn't defined the default value is used.
+ *
+ * Settings describe follow things:
+ * - The port to listen on
+ * - How the connections will be handled (the mode)
+ * - The size of the worker pool and its queue
+ * - The amount of event loops of the non-blocking mode
+ * - How long connections are kept open
+ * - The size of the file cache and of the mapped files
+ * - The size of the cache of compressed files
+ * - Whether the indexed folders are watched for changes
+ * - The snapshot file of the indexed folders
+ * - Whether the folders are indexed lazily, and how many files may be indexed
+ * - The access log file and when it is rotated
+ */
+public class ServerConfig {
+
+    /**
+     * Every connection runs in a own thread.
+     */
+    public static final String MODE_THREAD = "thread";
+
+    /**
+     * Connections are handled by a bounded pool of worker threads.
+     */
+    public static final String MODE_POOL = "pool";
+
+    /**
+     * Every connection runs in a own virtual thread.
+     * Requires Java 21 or newer.
+     */
+    public static final String MODE_VIRTUAL = "virtual";
+
+    /**
+     * Connections are handled non-blocking by a small amount of event loops,
+     * the responses are created by the worker pool.
+     */
+    public static final String MODE_NIO = "nio";
+
+    /**
+     * Port to listen on.
+     */
+    private int port = 80;
+
+    /**
+     * Mode of handling the connections.
+     */
+    private String mode = MODE_POOL;
+
+    /**
+     * Amount of worker threads that are always kept alive.
+     */
+    private int coreWorkers = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * Maximum amount of worker threads.
+     */
+    private int maxWorkers = 64;
+
+    /**
+     * Amount of accepted connections that can wait for a free worker.
+     */
+    private int queueSize = 256;
+
+    /**
+     * Seconds that a worker above the core amount may be idle before it will be stopped.
+     */
+    private int workerIdle = 60;
+
+    /**
+     * Amount of event loops in the nio mode.
+     */
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum amount of requests on a single connection.
+     * If 1, every connection will be closed after the first response.
+     */
+    private int maxRequests = 100;
+
+    /**
+     * Seconds that a connection may be idle, before it will be closed.
+     */
+    private int idleTimeout = 5;
+
+    /**
+     * Total budget in bytes of the file cache, 0 if files are not cached.
+     */
+    private long cacheSize = 0;
+
+    /**
+     * Maximum size in bytes of a single cached file.
+     */
+    private long cacheEntrySize = 0;
+
+    /**
+     * Minimum size in bytes of a mapped file.
+     */
+    private long mapThreshold = 0;
+
+    /**
+     * Total budget in bytes of the mapped files, 0 if files are not mapped.
+     */
+    private long mapSize = 0;
+
+    /**
+     * Total budget in bytes of the compressed files, 0 if files are not compressed on the fly.
+     */
+    private long compressSize = 0;
+
+    /**
+     * The indexed folders are watched for changes.
+     */
+    private boolean watch = false;
+
+    /**
+     * Snapshot file of the indexed folders, or null if no snapshot is kept.
+     */
+    private File snapshot;
+
+    /**
+     * Maximum amount of indexed files if the folders are indexed when they are requested, 0 to index all folders at startup.
+     */
+    private long lazyBudget = 0;
+
+    /**
+     * Access log file, or null if no access log is written.
+     */
+    private File accessLog;
+
+    /**
+     * Size in bytes at which the access log is rotated, 0 to never rotate on size.
+     */
+    private long accessLogSize = 0;
+
+    /**
+     * Age in minutes at which the access log is rotated, 0 to never rotate on age.
+     */
+    private long accessLogAge = 0;
+
+    /**
+     * Constructor.
+     * If the file can't be read, the default settings will be used.
+     * @param file Server settings file.
+     */
+    public ServerConfig(File file) {
+        try {
+            ConfigReader reader = new ConfigReader(file, new ServerConfigReader());
+            reader.readFile();
+        } catch (IOException e) {
+            System.out.println("Server settings not found, using defaults");
+        }
+
+        if (maxWorkers < coreWorkers) {
+            maxWorkers = coreWorkers;
+        }
+    }
+
+    /**
+     * Get the port to listen on.
+     * @return the port to listen on.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the mode of handling the connections.
+     * @return the mode of handling the connections.
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Set the mode of handling the connections.
+     * @param mode Mode of handling the connections.
+     */
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Get the amount of worker threads that are always kept alive.
+     * @return the amount of worker threads that are always kept alive.
+     */
+    public int getCoreWorkers() {
+        return coreWorkers;
+    }
+
+    /**
+     * Get the maximum amount of worker threads.
+     * @return the maximum amount of worker threads.
+     */
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    /**
+     * Get the amount of accepted connections that can wait for a free worker.
+     * @return the amount of accepted connections that can wait for a free worker.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Get the seconds that a worker above the core amount may be idle.
+     * @return the seconds that a worker above the core amount may be idle.
+     */
+    public int getWorkerIdle() {
+        return workerIdle;
+    }
+
+    /**
+     * Get the amount of event loops in the nio mode.
+     * @return the amount of event loops in the nio mode.
+     */
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * Get the maximum amount of requests on a single connection.
+     * @return the maximum amount of requests on a single connection.
+     */
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * Get the seconds that a connection may be idle.
+     * @return the seconds that a connection may be idle.
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Get the total budget in bytes of the file cache.
+     * @return the total budget of the file cache, 0 if files are not cached.
+     */
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Get the maximum size in bytes of a single cached file.
+     * @return the maximum size of a single cached file.
+     */
+    public long getCacheEntrySize() {
+        return cacheEntrySize;
+    }
+
+    /**
+     * Get the minimum size in bytes of a mapped file.
+     * @return the minimum size of a mapped file.
+     */
+    public long getMapThreshold() {
+        return mapThreshold;
+    }
+
+    /**
+     * Get the total budget in bytes of the mapped files.
+     * @return the total budget of the mapped files, 0 if files are not mapped.
+     */
+    public long getMapSize() {
+        return mapSize;
+    }
+
+    /**
+     * Get the total budget in bytes of the compressed files.
+     * @return the total budget of the compressed files, 0 if files are not compressed on the fly.
+     */
+    public long getCompressSize() {
+        return compressSize;
+    }
+
+    /**
+     * Checking of the indexed folders are watched for changes.
+     * @return the indexed folders are watched.
+     */
+    public boolean isWatch() {
+        return watch;
+    }
+
+    /**
+     * Get the snapshot file of the indexed folders.
+     * @return the snapshot file, or null if no snapshot is kept.
+     */
+    public File getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Get the maximum amount of indexed files if the folders are indexed when they are requested.
+     * @return the maximum amount of indexed files, 0 if all folders are indexed at startup.
+     */
+    public long getLazyBudget() {
+        return lazyBudget;
+    }
+
+    /**
+     * Get the access log file.
+     * @return the access log file, or null if no access log is written.
+     */
+    public File getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * Get the size at which the access log is rotated.
+     * @return the size in bytes, 0 to never rotate on size.
+     */
+    public long getAccessLogSize() {
+        return accessLogSize;
+    }
+
+    /**
+     * Get the age at which the access log is rotated.
+     * @return the age in minutes, 0 to never rotate on age.
+     */
+    public long getAccessLogAge() {
+        return accessLogAge;
+    }
+
+    /**
+     * Reader listener to parse the server settings file.
+     */
+    private class ServerConfigReader implements ConfigReaderListener {
+
+        /**
+         * Check of the property is allowed.
+         * @param name Name of the property.
+         * @param args The amount of arguments included the name argument.
+         * @return property is allowed
+         */
+        @Override
+        public boolean allowedProperty(String name, int args) {
+            switch (name) {
+                case "port":
+                    return args == 2;
+                case "mode":
+                    return args == 2;
+                case "workers":
+                    return args == 3;
+                case "queue":
+                    return args == 2;
+                case "worker-idle":
+                    return args == 2;
+                case "event-loops":
+                    return args == 2;
+                case "keep-alive":
+                    return args == 3;
+                case "cache":
+                    return args == 3;
+                case "map":
+                    return args == 3;
+                case "compress":
+                    return args == 2;
+                case "watch":
+                    return args == 2;
+                case "snapshot":
+                    return args == 2;
+                case "lazy":
+                    return args == 2;
+                case "access-log":
+                    return args == 2;
+                case "access-log-rotate":
+                    return args == 3;
+            }
+            return false;
+        }
+
+        /**
+         * Parse single property.
+         * @param args Arguments of the property.
+         * @return could be parsed.
+         */
+        @Override
+        public boolean onReadProperty(String[] args) {
+            try {
+                switch (args[0]) {
+                    case "port":
+                        port = Integer.parseInt(args[1]);
+                        return true;
+                    case "mode":
+                        mode = args[1];
+                        return true;
+                    case "workers":
+                        coreWorkers = Integer.parseInt(args[1]);
+                        maxWorkers = Integer.parseInt(args[2]);
+                        return true;
+                    case "queue":
+                        queueSize = Integer.parseInt(args[1]);
+                        return true;
+                    case "worker-idle":
+                        workerIdle = Integer.parseInt(args[1]);
+                        return true;
+                    case "event-loops":
+                        eventLoops = Integer.parseInt(args[1]);
+                        return true;
+                    case "keep-alive":
+                        maxRequests = Integer.parseInt(args[1]);
+                        idleTimeout = Integer.parseInt(args[2]);
+                        return true;
+                    case "cache":
+                        cacheSize = Long.parseLong(args[1]);
+                        cacheEntrySize = Long.parseLong(args[2]);
+                        return true;
+                    case "map":
+                        mapThreshold = Long.parseLong(args[1]);
+                        mapSize = Long.parseLong(args[2]);
+                        return true;
+                    case "compress":
+                        compressSize = Long.parseLong(args[1]);
+                        return true;
+                    case "watch":
+                        watch = args[1].equals("on");
+                        return true;
+                    case "snapshot":
+                        snapshot = args[1].equals("off") ? null : new File(args[1]);
+                        return true;
+                    case "lazy":
+                        lazyBudget = Long.parseLong(args[1]);
+                        return true;
+                    case "access-log":
+                        accessLog = args[1].equals("off") ? null : new File(args[1]);
+                        return true;
+                    case "access-log-rotate":
+                        accessLogSize = Long.parseLong(args[1]);
+                        accessLogAge = Long.parseLong(args[2]);
+                        return true;
+                }
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            return false;
+        }
+    }
+}
@@ -1,81 +1,182 @@
 package network;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * HTTP URL
+ *
+ * The url is a view on the received request data, no strings are created while the request is parsed.
+ * The path is percent-decoded and its dot segments are removed in a single pass, as described in RFC 3986.
+ * Because the result is never longer than the received path, it is written over the received path in the same buffer.
+ * The strings are only created when they are asked for, so the view is only valid until the next request is
+ * read into the same buffer.
  */
 public class Url {
 
     /**
-     * Path to the file.
+     * Received data of the request.
+     */
+    private byte[] data;
+
+    /**
+     * Start of the normalized path, always a slash.
+     */
+    private int start;
+
+    /**
+     * End of the normalized path.
+     */
+    private int end;
+
+    /**
+     * Position of the last slash of the normalized path.
+     */
+    private int slash;
+
+    /**
+     * Position of the last dot of the last segment, or -1 if the last segment has no dot.
+     */
+    private int dot;
+
+    /**
+     * Start of the query, after the question mark, or -1 if the url has no query.
+     */
+    private int queryStart = -1;
+
+    /**
+     * End of the query.
+     */
+    private int queryEnd;
+
+    /**
+     * Path to the file, created when asked.
      */
     private String[] path;
 
     /**
-     * Filename extracted from the url.
+     * Filename extracted from the url, created when asked.
      */
     private String file;
 
     /**
-     * File extension extracted from the url.
+     * File extension extracted from the url, created when asked.
      */
     private String extension;
 
     /**
-     * The plain url.
+     * The normalized url without query, created when asked.
+     */
+    private String location;
+
+    /**
+     * Query of the url, created when asked.
+     */
+    private String query;
+
+    /**
+     * The normalized url with query, created when asked.
      */
     private String plain;
 
     /**
      * Constructor.
-     * @param url Http url.
+     * A url that isn't a path, like "*", is read as the root.
+     * @param data Received data of the request, the path is normalized in place.
+     * @param from Start of the url.
+     * @param to End of the url.
+     * @throws BadRequestException the url has an invalid escape, or an escaped slash or control character.
      */
-    public Url(String url) {
+    public Url(byte[] data, int from, int to) throws BadRequestException {
+        this.data = data;
+        start = from;
 
-        if (!url.startsWith("/")) {
-            plain = "/";
+        if (from == to || data[from] != '/') {
+            data[from] = '/';
+            end = from + 1;
+            slash = from;
+            dot = -1;
             return;
         }
 
-        plain = url;
-
-        // strip query
-        int posQuery;
-        if ((posQuery = url.lastIndexOf('?')) != -1) {
-            url = url.substring(0, posQuery);
+        int query = from;
+        while (query < to && data[query] != '?') {
+            query++;
+        }
+        if (query < to) {
+            queryStart = query + 1;
+            queryEnd = to;
         }
 
-        if (url.endsWith("/")) {
+        // The written position never passes the read position, because decoding and removing segments only shortens the path.
+        int write = from + 1;
+        int read = from + 1;
+        while (read < query) {
+            int segment = write;
+            while (read < query && data[read] != '/') {
+                byte b = data[read++];
+                if (b == '%') {
+                    b = decode(data, read, query);
+                    read += 2;
+                }
+                data[write++] = b;
+            }
 
-            // the url is pointed to a folder.
+            int length = write - segment;
+            if (length == 1 && data[segment] == '.') {
+                write = segment;
+            } else if (length == 2 && data[segment] == '.' && data[segment + 1] == '.') {
 
-            if (url.length() > 1) {
-                String _url = url.substring(1, url.length() - 1);
-                path = _url.split("/");
+                // Remove the previous segment, a path above the root stays at the root.
+                write = segment - 1;
+                while (write > from && data[write - 1] != '/') {
+                    write--;
+                }
+                write = Math.max(write, from + 1);
+            } else if (read < query) {
+                data[write++] = '/';
             }
-            return;
-        }
-
-        // the url is pointed to a file.
-        // parse path, filename and extension
 
-        int posLastDot;
-        if ((posLastDot = url.lastIndexOf('.')) != -1) {
-            extension = url.substring(posLastDot + 1);
-        } else {
+            // Skip the slash after the segment.
+            if (read < query) {
+                read++;
+            }
+        }
 
-            // read as folder
-            String _url = url.substring(1, url.length());
-            path = _url.split("/");
-            return;
+        end = write;
+        slash = end - 1;
+        while (data[slash] != '/') {
+            slash--;
+        }
+        dot = end - 1;
+        while (dot > slash && data[dot] != '.') {
+            dot--;
         }
+        if (dot == slash) {
+            dot = -1;
+        }
+    }
 
-        int posLastSlash;
-        if ((posLastSlash = url.lastIndexOf('/')) != -1) {
-            String _url = url.substring(1, posLastSlash + 1);
-            path = _url.split("/");
+    /**
+     * Decode the escaped character after a percent sign.
+     * @param data Received data of the request.
+     * @param position Position after the percent sign.
+     * @param limit End of the path.
+     * @return the decoded character.
+     * @throws BadRequestException the escape is invalid, or is a slash or control character.
+     */
+    private static byte decode(byte[] data, int position, int limit) throws BadRequestException {
+        int high = position + 1 < limit ? Character.digit(data[position], 16) : -1;
+        int low = position + 1 < limit ? Character.digit(data[position + 1], 16) : -1;
+        if (high == -1 || low == -1) {
+            throw new BadRequestException(Response.BAD_REQUEST, "Malformed url escape");
+        }
 
-            file = url.substring(posLastSlash + 1);
+        // A control character could end a header line if the url is written into a redirect or the access log.
+        int value = high << 4 | low;
+        if (value < ' ' || value == 0x7F || value == '/') {
+            throw new BadRequestException(Response.BAD_REQUEST, "Forbidden url escape");
         }
+        return (byte) value;
     }
 
     /**
@@ -83,38 +184,88 @@ public class Url {
      * @return is pointed to a folder.
      */
     public boolean isFolder() {
-        return extension == null || extension.equals("");
+        return dot == -1 || dot == end - 1;
     }
 
     /**
      * Get path to the requested file.
-     * @return path to the requested file.
+     * @return path to the requested file, or null if the url is pointed to the root.
      */
     public String[] getPath() {
+        if (path == null) {
+            int last = dot == -1 ? end : slash;
+            if (last > start + 1 && data[last - 1] == '/') {
+                last--;
+            }
+            if (last > start + 1) {
+                path = decode(start + 1, last).split("/");
+            }
+        }
         return path;
     }
 
     /**
      * Get the filename extracted from the url.
-     * @return the filename extracted from the url.
+     * @return the filename extracted from the url, or null if the url is pointed to a folder.
      */
     public String getFile() {
+        if (file == null && dot != -1) {
+            file = decode(slash + 1, end);
+        }
         return file;
     }
 
     /**
      * Get the file extension extracted from the url.
-     * @return file extension extracted from the url.
+     * @return file extension extracted from the url, or null if the last segment has no dot.
      */
     public String getExtension() {
+        if (extension == null && dot != -1) {
+            extension = decode(dot + 1, end);
+        }
         return extension;
     }
 
     /**
-     * Get the plain url.
+     * Get the location of the url, the normalized url without query.
+     * @return the location of the url.
+     */
+    public String getLocation() {
+        if (location == null) {
+            location = decode(start, end);
+        }
+        return location;
+    }
+
+    /**
+     * Get the query of the url, as it is received.
+     * @return the query without question mark, or null if the url has no query.
+     */
+    public String getQuery() {
+        if (query == null && queryStart != -1) {
+            query = new String(data, queryStart, queryEnd - queryStart, StandardCharsets.ISO_8859_1);
+        }
+        return query;
+    }
+
+    /**
+     * Get the plain url, the normalized url with its query.
      * @return the plain url.
      */
     public String getPlain() {
+        if (plain == null) {
+            plain = queryStart == -1 ? getLocation() : getLocation() + "?" + getQuery();
+        }
         return plain;
     }
+
+    /**
+     * Create a string of a part of the normalized path.
+     * @param from Start of the part.
+     * @param to End of the part.
+     * @return the part, decoded as UTF-8.
+     */
+    private String decode(int from, int to) {
+        return new String(data, from, to - from, StandardCharsets.UTF_8);
+    }
 }
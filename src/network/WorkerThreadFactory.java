@@ -0,0 +1,80 @@
+package network;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Create named worker threads for handling connections.
+ * The names are made of a prefix and a sequence number, so the workers are recognisable in thread dumps.
+ */
+public class WorkerThreadFactory implements ThreadFactory {
+
+    /**
+     * Prefix of the thread names.
+     */
+    private String prefix;
+
+    /**
+     * Sequence number of the next thread.
+     */
+    private AtomicInteger sequence = new AtomicInteger(1);
+
+    /**
+     * Constructor.
+     * @param prefix Prefix of the thread names.
+     */
+    public WorkerThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Create a new worker thread.
+     * @param runnable Task of the thread.
+     * @return the new worker thread.
+     */
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + "-" + sequence.getAndIncrement());
+        thread.setDaemon(false);
+        return thread;
+    }
+
+    /**
+     * Checking of virtual threads are available on this Java version.
+     * The factory is really built, because on Java 19 and 20 the builder exists but fails without the preview features.
+     * @return virtual threads are available.
+     */
+    public static boolean isVirtualSupported() {
+        try {
+            ofVirtual("probe");
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a factory of named virtual threads.
+     * Virtual threads are available since Java 21, the builder is looked up by reflection
+     * so the server still runs on older versions in the other modes.
+     * @param prefix Prefix of the thread names.
+     * @return factory of named virtual threads.
+     * @throws UnsupportedOperationException virtual threads aren't available on this Java version.
+     */
+    public static ThreadFactory ofVirtual(String prefix) throws UnsupportedOperationException {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+
+            Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, prefix + "-", 1L);
+
+            Method factory = builder.getMethod("factory");
+            return (ThreadFactory) factory.invoke(virtual);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+
+            // A failure of the builder itself is wrapped in an InvocationTargetException.
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+        }
+    }
+}
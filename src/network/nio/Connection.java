@@ -0,0 +1,376 @@
+package network.nio;
+
+import network.BadRequestException;
+import network.HeaderBuffer;
+import network.InputBuffer;
+import network.Request;
+import network.RequestHandler;
+import network.Response;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * State of a single non-blocking connection.
+ * The request is read incrementally until the end of the header is received,
+ * after that the response is written incrementally each time the socket is writable.
+ * If the connection is kept open, the following request is read after the response is written.
+ *
+ * The response is created by a worker, because that can block on the file system, the cache or the authorization.
+ * Meanwhile the connection isn't read or written, and the received data stays untouched for the request.
+ * When the response is created, the event loop continues with the connection.
+ */
+class Connection {
+
+    /**
+     * Maximum size of the request header.
+     */
+    private static final int MAX_HEADER = 8192;
+
+    /**
+     * Channel of the client.
+     */
+    private SocketChannel channel;
+
+    /**
+     * Selection key of the channel.
+     */
+    private SelectionKey key;
+
+    /**
+     * Handler that decides the responses of the requests.
+     */
+    private RequestHandler handler;
+
+    /**
+     * Event loop of the connection.
+     */
+    private EventLoop loop;
+
+    /**
+     * Workers that create the responses.
+     */
+    private Executor workers;
+
+    /**
+     * The response of the current request is being created by a worker.
+     */
+    private boolean handling;
+
+    /**
+     * Received data of the request.
+     */
+    private InputBuffer input = new InputBuffer(MAX_HEADER);
+
+    /**
+     * Request of which the response is being written.
+     */
+    private Request request;
+
+    /**
+     * Time in nanoseconds the handling of the current request started.
+     */
+    private long started;
+
+    /**
+     * Response that is being written.
+     */
+    private Response response;
+
+    /**
+     * Buffer to assemble the response headers, reused for all responses.
+     */
+    private HeaderBuffer headerBuffer = new HeaderBuffer();
+
+    /**
+     * Remaining data of the response header.
+     */
+    private ByteBuffer header;
+
+    /**
+     * Header and body in memory of the response, written together by a gathering write.
+     */
+    private ByteBuffer[] parts = new ByteBuffer[2];
+
+    /**
+     * Position in the body of the next transfer.
+     */
+    private long position;
+
+    /**
+     * Maximum amount of requests on this connection.
+     */
+    private int maxRequests;
+
+    /**
+     * Amount of requests on this connection.
+     */
+    private int requests;
+
+    /**
+     * Connection will be kept open after the current response.
+     */
+    private boolean keepAlive;
+
+    /**
+     * Time in milliseconds of the last read or written data.
+     */
+    private long lastActive;
+
+    /**
+     * Constructor.
+     * @param channel Channel of the client.
+     * @param key Selection key of the channel.
+     * @param handler Handler that decides the responses of the requests.
+     * @param loop Event loop of the connection.
+     * @param workers Workers that create the responses.
+     * @param maxRequests Maximum amount of requests on this connection.
+     */
+    Connection(SocketChannel channel, SelectionKey key, RequestHandler handler, EventLoop loop, Executor workers,
+               int maxRequests) {
+        this.channel = channel;
+        this.key = key;
+        this.handler = handler;
+        this.loop = loop;
+        this.workers = workers;
+        this.maxRequests = maxRequests;
+        lastActive = System.currentTimeMillis();
+    }
+
+    /**
+     * Read the available data of the request.
+     * If the complete header is received, the response is created by a worker.
+     * @throws IOException Exception.
+     */
+    void read() throws IOException {
+        if (input.fill(channel) == -1) {
+            close();
+            return;
+        }
+
+        lastActive = System.currentTimeMillis();
+        handleRequests();
+    }
+
+    /**
+     * Write the current response as far as the socket accepts the data.
+     * If the response is complete, the following request will be handled.
+     * @throws IOException Exception.
+     */
+    void write() throws IOException {
+        if (writeResponse() && finishResponse()) {
+            handleRequests();
+        }
+    }
+
+    /**
+     * Handle the received requests one by one, as long as the responses can be written at once.
+     * @throws IOException Exception.
+     */
+    private void handleRequests() throws IOException {
+        while (startRequest()) {
+            if (!writeResponse() || !finishResponse()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start the handling of the received request, the response is created by a worker.
+     * A malformed request, or a request for which no worker is available, is answered by the event loop itself.
+     * @return true if a response is started, false if the request isn't completely received or is given to a worker.
+     * @throws IOException Exception.
+     */
+    private boolean startRequest() throws IOException {
+        request = new Request(input);
+        try {
+            if (!request.parse()) {
+                request = null;
+                return false;
+            }
+        } catch (BadRequestException e) {
+
+            // The request can't be handled, respond the error and close the connection.
+            started = System.nanoTime();
+            keepAlive = false;
+            response = new Response(e.getStatus());
+            response.open();
+            startResponse();
+            return true;
+        }
+
+        started = System.nanoTime();
+        requests++;
+        keepAlive = request.isKeepAlive() && requests < maxRequests;
+
+        // Nothing is read until the response is created, the request is a view on the received data.
+        key.interestOps(0);
+        handling = true;
+        try {
+            workers.execute(this::createResponse);
+        } catch (RejectedExecutionException e) {
+
+            // All workers are busy and the queue is full.
+            handling = false;
+            keepAlive = false;
+            response = new Response(Response.SERVICE_UNAVAILABLE);
+            response.open();
+            startResponse();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Create the response of the current request, runs on a worker.
+     * After that the event loop continues with the connection, also if the handling failed.
+     */
+    private void createResponse() {
+        try {
+            Response response = handler.handle(request);
+            response.setKeepAlive(keepAlive);
+            response.open();
+            this.response = response;
+        } finally {
+            loop.execute(this::resume);
+        }
+    }
+
+    /**
+     * Continue with the connection after its response is created, runs on the event loop.
+     * The response is written as far as possible, and the following received requests are handled.
+     */
+    private void resume() {
+        handling = false;
+        if (response == null || !key.isValid()) {
+            close();
+            return;
+        }
+
+        lastActive = System.currentTimeMillis();
+        try {
+            startResponse();
+            if (writeResponse() && finishResponse()) {
+                handleRequests();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Start writing the opened response of the current request.
+     */
+    private void startResponse() {
+        headerBuffer.reset();
+        response.writeHeader(headerBuffer);
+        header = headerBuffer.getBuffer();
+        position = 0;
+
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Write the current response as far as the socket accepts the data.
+     * @return the response is completely written.
+     * @throws IOException Exception.
+     */
+    private boolean writeResponse() throws IOException {
+        if (header.hasRemaining()) {
+            ByteBuffer content = response.getContent();
+
+            long written;
+            if (content != null) {
+
+                // A body in memory is written together with the header.
+                parts[0] = header;
+                parts[1] = content;
+                written = channel.write(parts);
+                position = content.position();
+            } else {
+                written = channel.write(header);
+            }
+
+            if (written > 0) {
+                lastActive = System.currentTimeMillis();
+            }
+            if (header.hasRemaining()) {
+                return false;
+            }
+        }
+
+        if (!response.hasBody()) {
+            return true;
+        }
+
+        // Transfer the body directly from the file or the cache into the socket.
+        while (position < response.getContentLength()) {
+            long transferred = response.transfer(channel, position);
+            if (transferred == 0) {
+
+                // Wait until the socket is writable again.
+                return false;
+            }
+
+            position += transferred;
+            lastActive = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    /**
+     * Finish the completely written response.
+     * @return the connection is kept open for the following request.
+     */
+    private boolean finishResponse() {
+        response.close();
+        handler.log(request, response, started);
+        request = null;
+        response = null;
+        parts[1] = null;
+
+        if (!keepAlive) {
+            close();
+            return false;
+        }
+
+        key.interestOps(SelectionKey.OP_READ);
+        return true;
+    }
+
+    /**
+     * Checking of the response of the current request is being created by a worker.
+     * @return the response is being created.
+     */
+    boolean isHandling() {
+        return handling;
+    }
+
+    /**
+     * Get the time of the last read or written data.
+     * @return time in milliseconds of the last read or written data.
+     */
+    long getLastActive() {
+        return lastActive;
+    }
+
+    /**
+     * Close the connection and the response.
+     */
+    void close() {
+        if (response != null) {
+            response.close();
+        }
+
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+}
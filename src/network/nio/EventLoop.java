@@ -0,0 +1,181 @@
+package network.nio;
+
+import network.RequestHandler;
+import network.ServerConfig;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Event loop that handles the reading and writing of a group of connections.
+ * Each event loop runs in a own thread and has a own selector.
+ * The responses are created by workers, which hand the connection back to the event loop by a task.
+ */
+class EventLoop implements Runnable {
+
+    /**
+     * Milliseconds between the checks on idle connections.
+     */
+    private static final long IDLE_CHECK = 1000;
+
+    /**
+     * Selector of the connections of this event loop.
+     */
+    private Selector selector;
+
+    /**
+     * Accepted connections that are not yet registered by the selector.
+     */
+    private Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Tasks of other threads that must run on the event loop.
+     */
+    private Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Handler that decides the responses of the requests.
+     */
+    private RequestHandler handler;
+
+    /**
+     * Workers that create the responses.
+     */
+    private Executor workers;
+
+    /**
+     * Settings of the server.
+     */
+    private ServerConfig config;
+
+    /**
+     * Time in milliseconds of the last check on idle connections.
+     */
+    private long lastIdleCheck;
+
+    /**
+     * Constructor.
+     * @param handler Handler that decides the responses of the requests.
+     * @param workers Workers that create the responses.
+     * @param config Settings of the server.
+     * @throws IOException Exception.
+     */
+    EventLoop(RequestHandler handler, Executor workers, ServerConfig config) throws IOException {
+        this.handler = handler;
+        this.workers = workers;
+        this.config = config;
+        selector = Selector.open();
+    }
+
+    /**
+     * Hand over an accepted connection to this event loop.
+     * The connection will be registered by the thread of the event loop.
+     * @param channel Accepted connection.
+     */
+    void register(SocketChannel channel) {
+        pending.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Run a task on the thread of this event loop.
+     * @param task Task to run.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Run the event loop.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select(IDLE_CHECK);
+                registerPending();
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+
+                closeIdle();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Close the connections that are idle for too long.
+     * The check is done at most once per {@link EventLoop#IDLE_CHECK} milliseconds.
+     */
+    private void closeIdle() {
+        long now = System.currentTimeMillis();
+        if (now - lastIdleCheck < IDLE_CHECK) {
+            return;
+        }
+        lastIdleCheck = now;
+
+        long idleSince = now - config.getIdleTimeout() * 1000L;
+        for (SelectionKey key : selector.keys()) {
+            Connection connection = (Connection) key.attachment();
+            if (connection != null && !connection.isHandling() && connection.getLastActive() < idleSince) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Run the tasks of other threads.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Register the accepted connections by the selector.
+     */
+    private void registerPending() {
+        SocketChannel channel;
+        while ((channel = pending.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(channel, key, handler, this, workers, config.getMaxRequests()));
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ioe) {
+                    //
+                }
+            }
+        }
+    }
+}
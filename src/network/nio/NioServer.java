@@ -0,0 +1,102 @@
+package network.nio;
+
+import network.RequestHandler;
+import network.ServerConfig;
+import network.WorkerThreadFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking HTTP service.
+ * The connections are accepted non-blocking and divided over a small amount of {@link EventLoop}s.
+ * An event loop reads the requests and writes the responses of all its connections,
+ * so there is no thread needed for each connection.
+ * The responses are created by a bounded pool of workers, sized like the worker pool of the pool mode,
+ * so a request that waits on the file system or the authorization doesn't stop the other connections of its loop.
+ */
+public class NioServer {
+
+    /**
+     * Port to listen on.
+     */
+    private int port;
+
+    /**
+     * Event loops that handle the accepted connections.
+     */
+    private EventLoop[] loops;
+
+    /**
+     * Index of the event loop that gets the next connection.
+     */
+    private int next;
+
+    /**
+     * Constructor.
+     * @param config Settings of the server.
+     * @param handler Handler that decides the responses of the requests.
+     * @throws IOException Exception.
+     */
+    public NioServer(ServerConfig config, RequestHandler handler) throws IOException {
+        this.port = config.getPort();
+
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(
+                config.getCoreWorkers(),
+                config.getMaxWorkers(),
+                config.getWorkerIdle(), TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(config.getQueueSize()),
+                new WorkerThreadFactory("http-nio-worker"),
+                new ThreadPoolExecutor.AbortPolicy());
+        workers.prestartCoreThread();
+
+        loops = new EventLoop[Math.max(1, config.getEventLoops())];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(handler, workers, config);
+        }
+    }
+
+    /**
+     * Execute the non-blocking HTTP service.
+     * The calling thread is used for accepting the connections.
+     * @throws IOException Exception.
+     */
+    public void execute() throws IOException {
+        WorkerThreadFactory threadFactory = new WorkerThreadFactory("http-loop");
+        for (EventLoop loop : loops) {
+            threadFactory.newThread(loop).start();
+        }
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+
+        Selector selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        while (true) {
+            selector.select();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                keys.next();
+                keys.remove();
+
+                // Accept all waiting connections and divide them round robin over the event loops.
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    loops[next].register(channel);
+                    next = (next + 1) % loops.length;
+                }
+            }
+        }
+    }
+}